@@ -0,0 +1,86 @@
+package co.djuraev.chipsinput.chips;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.text.SpannableStringBuilder;
+import android.text.util.Rfc822Token;
+import android.text.util.Rfc822Tokenizer;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link AddressParser} finds the same first token as {@link Rfc822Tokenizer}.
+ */
+@RunWith(AndroidJUnit4.class) public class AddressParserTest {
+  private static final String[] SAMPLES = {
+      "",
+      " ",
+      "john@example.com",
+      "John Smith <john@example.com>",
+      "\"Smith, John\" <john@example.com>, mary@example.com",
+      "  ,;  john   smith  ",
+      "john (work) <john@example.com>",
+      "(a (nested) comment) <john@example.com> smith",
+      "\"quoted \\\"name\\\"\" <john@example.com>",
+      "a \"  \" b",
+      "<first><second>",
+      "<unterminated",
+      "\"unterminated",
+      "name <>",
+      ", , john@example.com",
+  };
+  private static final String ALPHABET = "ab @.,;\"\\()<> \0";
+
+  @Test public void samplesMatchTokenizer() {
+    for (final String sample : SAMPLES) {
+      assertSameFirstToken(sample);
+    }
+  }
+
+  @Test public void randomTextMatchesTokenizer() {
+    final Random random = new Random(822);
+    for (int i = 0; i < 20000; i++) {
+      final StringBuilder text = new StringBuilder();
+      final int length = random.nextInt(16);
+      for (int j = 0; j < length; j++) {
+        text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+      }
+      assertSameFirstToken(text.toString());
+    }
+  }
+
+  @Test public void parsesRangeOfOtherText() {
+    final SpannableStringBuilder text =
+        new SpannableStringBuilder("a@example.com, John <john@example.com>, ");
+    final AddressParser.Address address = AddressParser.parse(text, 15, text.length() - 2);
+    assertEquals("John", address.getName());
+    assertEquals("john@example.com", address.getAddress());
+  }
+
+  @Test public void cachedResultIsReused() {
+    final String text = "Mary <mary@example.com>";
+    assertSame(AddressParser.parse(text), AddressParser.parse(text));
+    assertNull(AddressParser.parse(" , "));
+    assertNull(AddressParser.parse(" , "));
+  }
+
+  private static void assertSameFirstToken(final String text) {
+    final Rfc822Token[] tokens = Rfc822Tokenizer.tokenize(text);
+    final AddressParser.Address address = AddressParser.parse(text);
+    final String message = "Parsing \"" + text.replace("\0", "\\0") + "\"";
+    if (tokens.length == 0) {
+      assertNull(message, address);
+      return;
+    }
+    assertNotNull(message, address);
+    assertEquals(message, tokens[0].getName(), address.getName());
+    assertEquals(message, tokens[0].getAddress(), address.getAddress());
+    // Without the memo, and on a CharSequence that is not a String.
+    final AddressParser.Address uncached =
+        AddressParser.parse(new StringBuilder(text), 0, text.length());
+    assertEquals(message, tokens[0].getName(), uncached.getName());
+    assertEquals(message, tokens[0].getAddress(), uncached.getAddress());
+  }
+}
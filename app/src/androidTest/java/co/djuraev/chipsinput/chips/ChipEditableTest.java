@@ -0,0 +1,220 @@
+package co.djuraev.chipsinput.chips;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.text.Editable;
+import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Applies the same random edits to a {@link ChipEditable} and a {@link SpannableStringBuilder}
+ * and checks that they hold the same text and find the same chips, in the same order.
+ */
+@RunWith(AndroidJUnit4.class) public class ChipEditableTest {
+  private static final String ALPHABET = "ab, ";
+  private static final int[] FLAGS = {
+      Spanned.SPAN_EXCLUSIVE_EXCLUSIVE, Spanned.SPAN_EXCLUSIVE_INCLUSIVE,
+      Spanned.SPAN_INCLUSIVE_EXCLUSIVE, Spanned.SPAN_INCLUSIVE_INCLUSIVE,
+      Spanned.SPAN_EXCLUSIVE_EXCLUSIVE | 1 << Spanned.SPAN_PRIORITY_SHIFT,
+  };
+
+  @Test public void randomEditsMatchSpannableStringBuilder() {
+    for (int seed = 0; seed < 50; seed++) {
+      final Random random = new Random(seed);
+      final SpannableStringBuilder expected = new SpannableStringBuilder();
+      final ChipEditable actual = new ChipEditable();
+      final ArrayList<DrawableRecipientChip> chips = new ArrayList<>();
+      for (int step = 0; step < 400; step++) {
+        final String message = "Seed " + seed + ", step " + step;
+        edit(random, expected, actual, chips);
+        assertMatches(message, expected, actual, random);
+      }
+    }
+  }
+
+  @Test public void watchersSeeIndexAfterEdit() {
+    final ChipEditable text = new ChipEditable("a, b, c, ");
+    for (int i = 0; i < 3; i++) {
+      text.setSpan(newChip(i), i * 3, i * 3 + 2, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+    final int[] checks = new int[1];
+    text.setSpan(new TextWatcher() {
+      @Override public void beforeTextChanged(final CharSequence s, final int start,
+          final int count, final int after) {
+        check(s);
+      }
+
+      @Override public void onTextChanged(final CharSequence s, final int start, final int before,
+          final int count) {
+        check(s);
+      }
+
+      @Override public void afterTextChanged(final Editable s) {
+        check(s);
+      }
+
+      private void check(final CharSequence s) {
+        // A copy holds the spans of the span store, in the same order.
+        final ChipEditable editable = (ChipEditable) s;
+        final int length = editable.length();
+        assertArrayEquals(
+            new SpannableStringBuilder(editable).getSpans(0, length, DrawableRecipientChip.class),
+            editable.getSpans(0, length, DrawableRecipientChip.class));
+        checks[0]++;
+      }
+    }, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+    text.insert(0, "x");
+    text.delete(1, 4);
+    text.replace(0, 2, text.subSequence(3, text.length()));
+    assertEquals(9, checks[0]);
+  }
+
+  @Test public void laterWatchersRunBeforeIndexIsStale() {
+    final ChipEditable text = new ChipEditable("a, b, ");
+    final TextWatcher watcher = new TextWatcher() {
+      @Override public void beforeTextChanged(final CharSequence s, final int start,
+          final int count, final int after) {
+      }
+
+      @Override public void onTextChanged(final CharSequence s, final int start, final int before,
+          final int count) {
+      }
+
+      @Override public void afterTextChanged(final Editable s) {
+      }
+    };
+    text.setSpan(watcher, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+    // Watchers are told in this order: the index updater first, the stale marker last.
+    final TextWatcher[] watchers = text.getSpans(0, text.length(), TextWatcher.class);
+    assertEquals(3, watchers.length);
+    assertSame(watcher, watchers[1]);
+    text.clearSpans();
+    text.setSpan(watcher, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+    assertSame(watcher, text.getSpans(0, text.length(), TextWatcher.class)[1]);
+  }
+
+  private static void edit(final Random random, final SpannableStringBuilder expected,
+      final ChipEditable actual, final ArrayList<DrawableRecipientChip> chips) {
+    final int length = expected.length();
+    final int start = random.nextInt(length + 1);
+    final int end = start + random.nextInt(length - start + 1);
+    switch (random.nextInt(10)) {
+      case 0:
+      case 1: {
+        final String typed = randomText(random);
+        expected.replace(start, end, typed);
+        actual.replace(start, end, typed);
+        break;
+      }
+      case 2:
+        expected.delete(start, end);
+        actual.delete(start, end);
+        break;
+      case 3:
+      case 4: {
+        if (start == end) {
+          break;
+        }
+        final DrawableRecipientChip chip = newChip(chips.size());
+        chips.add(chip);
+        final int flags = FLAGS[random.nextInt(FLAGS.length)];
+        expected.setSpan(chip, start, end, flags);
+        actual.setSpan(chip, start, end, flags);
+        break;
+      }
+      case 5: {
+        // Move a chip, or set it again where it is.
+        if (chips.isEmpty() || start == end) {
+          break;
+        }
+        final DrawableRecipientChip chip = chips.get(random.nextInt(chips.size()));
+        final int flags = FLAGS[random.nextInt(FLAGS.length)];
+        expected.setSpan(chip, start, end, flags);
+        actual.setSpan(chip, start, end, flags);
+        break;
+      }
+      case 6: {
+        if (chips.isEmpty()) {
+          break;
+        }
+        final DrawableRecipientChip chip = chips.get(random.nextInt(chips.size()));
+        expected.removeSpan(chip);
+        actual.removeSpan(chip);
+        break;
+      }
+      case 7: {
+        // Text with a new chip in it.
+        final SpannableString pasted = new SpannableString(randomText(random) + "chip");
+        final DrawableRecipientChip chip = newChip(chips.size());
+        chips.add(chip);
+        pasted.setSpan(chip, pasted.length() - 4, pasted.length(),
+            Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        expected.replace(start, end, pasted);
+        actual.replace(start, end, pasted);
+        break;
+      }
+      case 8: {
+        // Text of the field itself, bringing its chips along.
+        final int from = random.nextInt(length + 1);
+        final int to = from + random.nextInt(length - from + 1);
+        expected.replace(start, end, expected.subSequence(from, to));
+        actual.replace(start, end, actual.subSequence(from, to));
+        break;
+      }
+      default:
+        if (random.nextInt(20) == 0) {
+          expected.clear();
+          actual.clear();
+        } else {
+          final String typed = String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+          expected.insert(start, typed);
+          actual.insert(start, typed);
+        }
+    }
+  }
+
+  private static void assertMatches(final String message, final SpannableStringBuilder expected,
+      final ChipEditable actual, final Random random) {
+    assertEquals(message, expected.toString(), actual.toString());
+    final int length = expected.length();
+    assertChipsEqual(message, expected, actual, 0, length);
+    for (int i = 0; i < 5; i++) {
+      final int start = random.nextInt(length + 1);
+      final int end = start + random.nextInt(length - start + 1);
+      assertChipsEqual(message, expected, actual, start, end);
+    }
+    for (final DrawableRecipientChip chip : expected.getSpans(0, length,
+        DrawableRecipientChip.class)) {
+      assertEquals(message, expected.getSpanStart(chip), actual.getSpanStart(chip));
+      assertEquals(message, expected.getSpanEnd(chip), actual.getSpanEnd(chip));
+    }
+  }
+
+  private static void assertChipsEqual(final String message,
+      final SpannableStringBuilder expected, final ChipEditable actual, final int start,
+      final int end) {
+    assertArrayEquals(message + ", chips in " + start + ".." + end,
+        expected.getSpans(start, end, DrawableRecipientChip.class),
+        actual.getSpans(start, end, DrawableRecipientChip.class));
+  }
+
+  private static String randomText(final Random random) {
+    final StringBuilder text = new StringBuilder();
+    final int length = random.nextInt(6);
+    for (int i = 0; i < length; i++) {
+      text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+    }
+    return text.toString();
+  }
+
+  private static DrawableRecipientChip newChip(final int i) {
+    return new InvisibleRecipientChip(ChipItem.generateTokenizedEntry("c" + i + "@example.com"));
+  }
+}
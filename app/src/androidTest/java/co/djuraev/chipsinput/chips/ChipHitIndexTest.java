@@ -0,0 +1,243 @@
+package co.djuraev.chipsinput.chips;
+
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.DynamicLayout;
+import android.text.Layout;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextPaint;
+import android.util.Log;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link ChipHitIndex} finds the chip a walk over all chips of a layout finds, and on
+ * a chip the one the offset under the point is in, after edits and for new widths too, and that
+ * lookups only read the lines made stale, whatever the number of chips. How long a lookup takes is
+ * logged.
+ */
+@RunWith(AndroidJUnit4.class) public class ChipHitIndexTest {
+  private static final String TAG = "ChipHitIndexTest";
+  private static final int WIDTH = 1080;
+  private static final int DELETE_WIDTH = 40;
+
+  @Test public void findsChipsLikeAWalk() {
+    final Random random = new Random(5);
+    final SpannableStringBuilder text = new SpannableStringBuilder();
+    for (int i = 0; i < 60; i++) {
+      appendChip(text, text.length(), random);
+    }
+    final ChipHitIndex index = new ChipHitIndex();
+    Layout layout = newLayout(text, WIDTH);
+    assertMatchesWalk(index, layout, text, random);
+    for (int step = 0; step < 40; step++) {
+      final DrawableRecipientChip[] chips = getSortedChips(text);
+      final int offset;
+      if (chips.length > 0 && random.nextBoolean()) {
+        // Remove a chip with the space after it.
+        final DrawableRecipientChip chip = chips[random.nextInt(chips.length)];
+        offset = text.getSpanStart(chip);
+        final int end = text.getSpanEnd(chip);
+        text.removeSpan(chip);
+        text.delete(offset, Math.min(end + 1, text.length()));
+      } else {
+        offset = chips.length == 0 ? 0 : text.getSpanStart(chips[random.nextInt(chips.length)]);
+        appendChip(text, offset, random);
+      }
+      index.invalidate(offset);
+      assertMatchesWalk(index, layout, text, random);
+      if (step % 10 == 9) {
+        // A new width lays the text out again.
+        layout = newLayout(text, WIDTH / 2 + random.nextInt(WIDTH / 2));
+        assertMatchesWalk(index, layout, text, random);
+      }
+    }
+  }
+
+  @Test public void findsNothingWithoutChips() {
+    final SpannableStringBuilder text = new SpannableStringBuilder("typed text");
+    final ChipHitIndex index = new ChipHitIndex();
+    final Layout layout = newLayout(text, WIDTH);
+    assertNull(index.findChip(layout, text, 10, 10));
+    assertNull(index.findChip(null, text, 10, 10));
+  }
+
+  @Test public void lookupsReadOnlyStaleLines() {
+    assertReadsOnlyStaleLines(100);
+    assertReadsOnlyStaleLines(5000);
+  }
+
+  @Test public void logLookupTimes() {
+    final long few = timeLookups(100);
+    final long many = timeLookups(5000);
+    Log.i(TAG, String.format(Locale.US, "100 chips %d ns, 5000 chips %d ns per lookup", few,
+        many));
+  }
+
+  private static void assertReadsOnlyStaleLines(final int chipCount) {
+    final Random random = new Random(chipCount);
+    final SpannableStringBuilder text = new SpannableStringBuilder();
+    for (int i = 0; i < chipCount; i++) {
+      appendChip(text, text.length(), random);
+    }
+    final Layout layout = newLayout(text, WIDTH);
+    final ChipHitIndex index = new ChipHitIndex();
+    // The first lookup reads the whole layout.
+    index.findChip(layout, text, 0, 0);
+    assertEquals(layout.getLineCount(), index.getReadLineCount());
+    for (int i = 0; i < 1000; i++) {
+      index.findChip(layout, text, random.nextInt(WIDTH), random.nextInt(layout.getHeight()));
+    }
+    assertEquals(layout.getLineCount(), index.getReadLineCount());
+    for (int i = 0; i < 20; i++) {
+      // Typing or committing a chip at the end reads the last lines again, not the others.
+      final int read = index.getReadLineCount();
+      final int offset = text.length();
+      appendChip(text, offset, random);
+      index.invalidate(offset);
+      index.findChip(layout, text, random.nextInt(WIDTH), random.nextInt(layout.getHeight()));
+      assertTrue(chipCount + " chips: " + (index.getReadLineCount() - read) + " lines read",
+          index.getReadLineCount() - read <= 3);
+    }
+  }
+
+  /**
+   * @return nanoseconds per lookup at random points of the first lines
+   */
+  private static long timeLookups(final int chipCount) {
+    final Random random = new Random(chipCount);
+    final SpannableStringBuilder text = new SpannableStringBuilder();
+    for (int i = 0; i < chipCount; i++) {
+      appendChip(text, text.length(), random);
+    }
+    final Layout layout = newLayout(text, WIDTH);
+    final ChipHitIndex index = new ChipHitIndex();
+    final int height = layout.getLineBottom(Math.min(20, layout.getLineCount() - 1));
+    // Read the layout once, and warm up.
+    for (int i = 0; i < 10000; i++) {
+      index.findChip(layout, text, random.nextInt(WIDTH), random.nextInt(height));
+    }
+    final int lookups = 100000;
+    final long start = System.nanoTime();
+    for (int i = 0; i < lookups; i++) {
+      index.findChip(layout, text, random.nextInt(WIDTH), random.nextInt(height));
+    }
+    return (System.nanoTime() - start) / lookups;
+  }
+
+  private static void assertMatchesWalk(final ChipHitIndex index, final Layout layout,
+      final Spanned text, final Random random) {
+    final DrawableRecipientChip[] chips = getSortedChips(text);
+    for (int i = 0; i < 200; i++) {
+      final float x = random.nextInt(layout.getWidth() + 20) - 10;
+      final float y = random.nextInt(layout.getHeight() + 1);
+      final String message = "At " + x + ", " + y;
+      final DrawableRecipientChip expected = findByWalk(layout, text, chips, x, y);
+      final DrawableRecipientChip actual = index.findChip(layout, text, x, y);
+      assertSame(message, expected, actual);
+      if (actual != null) {
+        assertEquals(message, isInDeleteByWalk(layout, text, actual, x, y),
+            index.isInDelete(layout, text, actual, x, y, DELETE_WIDTH));
+      }
+    }
+    for (final DrawableRecipientChip chip : chips) {
+      final int start = text.getSpanStart(chip);
+      final int line = layout.getLineForOffset(start);
+      // Within the chip, the point is in it by offset too, as the field used to look chips up.
+      final float left = layout.getPrimaryHorizontal(start);
+      final float inside = left + 1 + random.nextInt(chip.getBounds().width() - 2);
+      final float middle = (layout.getLineTop(line) + layout.getLineBottom(line)) / 2f;
+      assertSame(chip, findByOffset(layout, text, chips, inside, middle));
+      assertSame(chip, index.findChip(layout, text, inside, middle));
+      // Every chip is found at its delete icon.
+      final float delete = left + chip.getBounds().width() - 1;
+      assertSame(chip, index.findChip(layout, text, delete, middle));
+      assertTrue(index.isInDelete(layout, text, chip, delete, middle, DELETE_WIDTH));
+    }
+  }
+
+  /**
+   * Find the chip at a point, or the one before it on its line unless that is the last chip.
+   */
+  private static DrawableRecipientChip findByWalk(final Layout layout, final Spanned text,
+      final DrawableRecipientChip[] chips, final float x, final float y) {
+    final int line = layout.getLineForVertical((int) y);
+    for (int i = chips.length - 1; i >= 0; i--) {
+      final int start = text.getSpanStart(chips[i]);
+      if (layout.getLineForOffset(start) != line) {
+        continue;
+      }
+      final float left = layout.getPrimaryHorizontal(start);
+      if (left > x) {
+        continue;
+      }
+      final boolean on = x <= left + chips[i].getBounds().width();
+      return on || i < chips.length - 1 ? chips[i] : null;
+    }
+    return null;
+  }
+
+  /**
+   * Find the chip holding the offset under a point, walking back from the offset to the last chip
+   * starting at or before it.
+   */
+  private static DrawableRecipientChip findByOffset(final Layout layout, final Spanned text,
+      final DrawableRecipientChip[] chips, final float x, final float y) {
+    final int offset = layout.getOffsetForHorizontal(layout.getLineForVertical((int) y), x);
+    for (int i = chips.length - 1; i >= 0; i--) {
+      if (text.getSpanStart(chips[i]) <= offset) {
+        return offset <= text.getSpanEnd(chips[i]) ? chips[i] : null;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isInDeleteByWalk(final Layout layout, final Spanned text,
+      final DrawableRecipientChip chip, final float x, final float y) {
+    final int start = text.getSpanStart(chip);
+    final int line = layout.getLineForOffset(start);
+    final float left = layout.getPrimaryHorizontal(start);
+    final float right = left + chip.getBounds().width();
+    return line == layout.getLineForVertical((int) y) && y >= layout.getLineTop(line)
+        && y <= layout.getLineBottom(line) && x <= right
+        && x >= Math.max(left, right - DELETE_WIDTH);
+  }
+
+  /**
+   * Insert a chip of a random width, and a space after it, at an offset.
+   */
+  private static void appendChip(final SpannableStringBuilder text, final int offset,
+      final Random random) {
+    final String address = "r" + random.nextInt(100000) + "@example.com";
+    final Drawable drawable = new ColorDrawable(0xff888888);
+    drawable.setBounds(0, 0, 50 + random.nextInt(400), 48);
+    text.insert(offset, address + " ");
+    text.setSpan(new VisibleRecipientChip(drawable, ChipItem.generateTokenizedEntry(address)),
+        offset, offset + address.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+  }
+
+  private static DrawableRecipientChip[] getSortedChips(final Spanned text) {
+    final DrawableRecipientChip[] chips =
+        text.getSpans(0, text.length(), DrawableRecipientChip.class);
+    Arrays.sort(chips, new Comparator<DrawableRecipientChip>() {
+      @Override public int compare(final DrawableRecipientChip a, final DrawableRecipientChip b) {
+        return text.getSpanStart(a) - text.getSpanStart(b);
+      }
+    });
+    return chips;
+  }
+
+  private static Layout newLayout(final SpannableStringBuilder text, final int width) {
+    final TextPaint paint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+    paint.setTextSize(40);
+    return new DynamicLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+  }
+}
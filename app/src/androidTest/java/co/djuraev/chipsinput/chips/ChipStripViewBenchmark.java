@@ -0,0 +1,136 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares showing the same chips with {@link ChipStripView} and with
+ * {@link RecipientEditTextView}, timing each phase on its own: creating the view with its chips,
+ * measuring, laying out and drawing it.
+ */
+@RunWith(AndroidJUnit4.class) public class ChipStripViewBenchmark {
+  private static final String TAG = "ChipStripViewBenchmark";
+  private static final int WIDTH = 1080;
+  private static final int CHIPS = 20;
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int ROUNDS = 30;
+  private static final String[] PHASES = { "create", "measure", "layout", "draw" };
+  private static final int CREATE = 0;
+  private static final int MEASURE = 1;
+  private static final int LAYOUT = 2;
+  private static final int DRAW = 3;
+
+  @Test public void stripIsCheaperThanEditField() {
+    final List<String> chips = new ArrayList<>();
+    for (int i = 0; i < CHIPS; i++) {
+      chips.add(String.format(Locale.US, "recipient%02d@example.com", i));
+    }
+    // Nanoseconds spent in each phase.
+    final long[] strip = new long[PHASES.length];
+    final long[] field = new long[PHASES.length];
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final Canvas canvas =
+            new Canvas(Bitmap.createBitmap(WIDTH, WIDTH, Bitmap.Config.ARGB_8888));
+        final long[] warmup = new long[PHASES.length];
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+          showInStrip(context, chips, canvas, warmup);
+          showInEditField(context, chips, canvas, warmup);
+        }
+        for (int i = 0; i < ROUNDS; i++) {
+          showInStrip(context, chips, canvas, strip);
+        }
+        for (int i = 0; i < ROUNDS; i++) {
+          showInEditField(context, chips, canvas, field);
+        }
+      }
+    });
+    long stripTotal = 0;
+    long fieldTotal = 0;
+    for (int phase = 0; phase < PHASES.length; phase++) {
+      Log.i(TAG, String.format(Locale.US, "%d chips, %s: strip %d us, edit field %d us", CHIPS,
+          PHASES[phase], strip[phase] / ROUNDS / 1000, field[phase] / ROUNDS / 1000));
+      stripTotal += strip[phase];
+      fieldTotal += field[phase];
+    }
+    assertTrue("Strip took " + stripTotal + " ns, edit field " + fieldTotal + " ns",
+        stripTotal < fieldTotal);
+  }
+
+  @Test public void truncatesToMaxLines() {
+    final List<String> chips = new ArrayList<>();
+    for (int i = 0; i < CHIPS; i++) {
+      chips.add(String.format(Locale.US, "recipient%02d@example.com", i));
+    }
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final ChipStripView strip = new ChipStripView(InstrumentationRegistry.getTargetContext());
+        strip.setChipsList(chips);
+        layOut(strip);
+        final int fullHeight = strip.getMeasuredHeight();
+        assertEquals(CHIPS, strip.getShownCount());
+        strip.setMaxLines(1);
+        layOut(strip);
+        assertTrue(strip.getShownCount() > 0);
+        assertTrue(strip.getShownCount() < CHIPS);
+        assertTrue(strip.getMeasuredHeight() < fullHeight);
+      }
+    });
+  }
+
+  private static void showInStrip(final Context context, final List<String> chips,
+      final Canvas canvas, final long[] nanos) {
+    final long start = System.nanoTime();
+    final ChipStripView strip = new ChipStripView(context);
+    strip.setChipsList(chips);
+    nanos[CREATE] += System.nanoTime() - start;
+    measureLayOutAndDraw(strip, canvas, nanos);
+  }
+
+  private static void showInEditField(final Context context, final List<String> chips,
+      final Canvas canvas, final long[] nanos) {
+    final long start = System.nanoTime();
+    final RecipientEditTextView field = new RecipientEditTextView(context, null);
+    // Chips are sized to the field, so it is laid out first.
+    layOut(field);
+    for (final String chip : chips) {
+      field.addRecipient(ChipItem.generateTokenizedEntry(chip), true);
+    }
+    field.flushDeferredWork();
+    nanos[CREATE] += System.nanoTime() - start;
+    measureLayOutAndDraw(field, canvas, nanos);
+  }
+
+  private static void measureLayOutAndDraw(final View view, final Canvas canvas,
+      final long[] nanos) {
+    long start = System.nanoTime();
+    view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+    nanos[MEASURE] += System.nanoTime() - start;
+    start = System.nanoTime();
+    view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    nanos[LAYOUT] += System.nanoTime() - start;
+    start = System.nanoTime();
+    view.draw(canvas);
+    nanos[DRAW] += System.nanoTime() - start;
+  }
+
+  private static void layOut(final View view) {
+    view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+    view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+  }
+}
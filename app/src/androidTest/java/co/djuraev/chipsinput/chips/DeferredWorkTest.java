@@ -0,0 +1,100 @@
+package co.djuraev.chipsinput.chips;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the work {@link RecipientEditTextView} defers waits for the next frame and is done
+ * once, in order, when flushed: chip lists in the order they were given, once the field has a
+ * width, and chips too wide for a new width after the layout that made them so.
+ */
+@RunWith(AndroidJUnit4.class) public class DeferredWorkTest {
+
+  @Test public void chipListsWaitForFrame() {
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final RecipientEditTextView view = createView();
+        view.setChipsList(Arrays.asList("a@example.com", "b@example.com"));
+        view.setChipsList(Arrays.asList("c@example.com"));
+        assertEquals(0, view.getChipCount());
+        view.flushDeferredWork();
+        assertEquals(Arrays.asList("a@example.com", "b@example.com", "c@example.com"),
+            view.getAllChipsValue());
+        // Nothing is left to do.
+        view.flushDeferredWork();
+        assertEquals(3, view.getChipCount());
+      }
+    });
+  }
+
+  @Test public void chipListsKeepCallOrder() {
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final RecipientEditTextView view = createView();
+        view.setChipsList(Arrays.asList("a@example.com", "b@example.com"));
+        view.updateChipsList(Arrays.asList("c@example.com"));
+        view.setChipsList(Arrays.asList("d@example.com"));
+        view.flushDeferredWork();
+        assertEquals(Arrays.asList("c@example.com", "d@example.com"), view.getAllChipsValue());
+        view.updateChipsList(Arrays.asList("d@example.com", "e@example.com"));
+        view.flushDeferredWork();
+        assertEquals(Arrays.asList("d@example.com", "e@example.com"), view.getAllChipsValue());
+      }
+    });
+  }
+
+  @Test public void chipListsWaitForWidth() {
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final RecipientEditTextView view =
+            new RecipientEditTextView(InstrumentationRegistry.getTargetContext(), null);
+        view.updateChipsList(Arrays.asList("a@example.com"));
+        view.setChipsList(Arrays.asList("b@example.com"));
+        view.flushDeferredWork();
+        assertEquals(0, view.getChipCount());
+        layOut(view, 1080);
+        view.flushDeferredWork();
+        assertEquals(Arrays.asList("a@example.com", "b@example.com"), view.getAllChipsValue());
+      }
+    });
+  }
+
+  @Test public void chipWidthsCheckedInFrameAfterResize() {
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final RecipientEditTextView view = createView();
+        view.setChipsList(Arrays.asList("a.very.long.recipient.name.for.testing@example.com"));
+        view.flushDeferredWork();
+        final DrawableRecipientChip chip = view.getSortedRecipients()[0];
+        final int narrow = chip.getBounds().width() / 2;
+        layOut(view, narrow);
+        // Not replaced while being laid out.
+        assertSame(chip, view.getSortedRecipients()[0]);
+        view.flushDeferredWork();
+        final DrawableRecipientChip replaced = view.getSortedRecipients()[0];
+        assertNotSame(chip, replaced);
+        assertTrue(replaced.getBounds().width() <= view.getWidth());
+      }
+    });
+  }
+
+  private static RecipientEditTextView createView() {
+    final RecipientEditTextView view =
+        new RecipientEditTextView(InstrumentationRegistry.getTargetContext(), null);
+    // Chips are sized to the width of the field.
+    layOut(view, 1080);
+    return view;
+  }
+
+  private static void layOut(final View view, final int width) {
+    view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+    view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+  }
+}
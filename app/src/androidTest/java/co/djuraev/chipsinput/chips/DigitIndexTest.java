@@ -0,0 +1,47 @@
+package co.djuraev.chipsinput.chips;
+
+import android.support.test.runner.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the digit index of {@link CompactSuggestionStore} finds the rows a scan with
+ * {@link CompactSuggestionStore#digitsContain} finds.
+ */
+@RunWith(AndroidJUnit4.class) public class DigitIndexTest {
+
+  @Test public void findsRowsContainingDigits() {
+    final Random random = new Random(3);
+    final CompactSuggestionStore.Builder builder = new CompactSuggestionStore.Builder();
+    for (int i = 0; i < 5000; i++) {
+      builder.add(i, random.nextInt(4) == 0 ? "No digits"
+          : "+1 (" + random.nextInt(1000) + ") " + random.nextInt(1000) + "-"
+              + random.nextInt(100) + (random.nextBoolean() ? " x" + random.nextInt(99) : ""));
+    }
+    final CompactSuggestionStore store = builder.build();
+    for (int query = 0; query < 300; query++) {
+      final String digits = Integer.toString(random.nextInt(query < 50 ? 10 : 100000));
+      final List<Integer> expected = new ArrayList<>();
+      for (int row = 0; row < store.size(); row++) {
+        if (store.digitsContain(row, digits)) {
+          expected.add(row);
+        }
+      }
+      final List<Integer> actual = new ArrayList<>();
+      for (final int row : store.findRowsWithDigits(digits)) {
+        actual.add(row);
+      }
+      assertEquals(digits, expected, actual);
+    }
+  }
+
+  @Test public void emptyStore() {
+    assertEquals(0,
+        CompactSuggestionStore.from(new ArrayList<ChipItem>()).findRowsWithDigits("1").length);
+  }
+}
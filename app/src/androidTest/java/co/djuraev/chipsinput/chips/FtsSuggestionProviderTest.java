@@ -0,0 +1,127 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link FtsSuggestionProvider} indexes the contacts already in a table and follows
+ * the changes made to it afterwards.
+ */
+@RunWith(AndroidJUnit4.class) public class FtsSuggestionProviderTest {
+  private SQLiteDatabase mDatabase;
+  private FtsSuggestionProvider mProvider;
+
+  @Before public void setUp() {
+    mDatabase = SQLiteDatabase.create(null);
+    mDatabase.execSQL("CREATE TABLE contacts (id INTEGER PRIMARY KEY, name TEXT)");
+    insert(1, "John Smith");
+    insert(2, "Mary Jones");
+    insert(3, "Johnny Cash");
+    mProvider = new FtsSuggestionProvider(mDatabase, "contacts", "id", "name");
+    mProvider.install();
+  }
+
+  @After public void tearDown() {
+    mDatabase.close();
+  }
+
+  @Test public void installIndexesExistingContacts() {
+    assertEquals(Arrays.asList("1 John Smith", "3 Johnny Cash"), query("john"));
+    // Installing again leaves the index as it is.
+    mProvider.install();
+    assertEquals(Arrays.asList("1 John Smith", "3 Johnny Cash"), query("john"));
+    assertEquals(3, query("").size());
+  }
+
+  @Test public void prefixQueries() {
+    assertEquals(Arrays.asList("1 John Smith", "3 Johnny Cash"), query("Jo"));
+    assertEquals(Arrays.asList("1 John Smith", "2 Mary Jones", "3 Johnny Cash"), query("j"));
+    assertEquals(Arrays.asList("1 John Smith"), query("john sm"));
+    assertEquals(Arrays.asList("1 John Smith"), query("sm jo"));
+    assertEquals(Collections.emptyList(), query("johnx"));
+    // Query syntax is typed as text.
+    assertEquals(Arrays.asList("2 Mary Jones"), query("\"mary\" -jones*"));
+  }
+
+  @Test public void limit() {
+    assertEquals(2, query("j", 2).size());
+    assertEquals(1, query("", 1).size());
+  }
+
+  @Test public void triggersFollowChanges() {
+    insert(4, "Joan Baez");
+    assertEquals(Arrays.asList("4 Joan Baez"), query("joa"));
+
+    final ContentValues values = new ContentValues();
+    values.put("name", "Peter Pan");
+    mDatabase.update("contacts", values, "id = 1", null);
+    assertEquals(Arrays.asList("3 Johnny Cash"), query("john"));
+    assertEquals(Arrays.asList("1 Peter Pan"), query("pet"));
+
+    values.clear();
+    values.put("id", 7);
+    mDatabase.update("contacts", values, "id = 2", null);
+    assertEquals(Arrays.asList("7 Mary Jones"), query("mary"));
+
+    mDatabase.delete("contacts", "id = 3", null);
+    assertEquals(Collections.emptyList(), query("john"));
+    assertEquals(Arrays.asList("4 Joan Baez", "7 Mary Jones"), query("jo"));
+  }
+
+  @Test public void uninstall() {
+    mProvider.uninstall();
+    // The contacts table no longer has triggers into the index.
+    insert(4, "Joan Baez");
+    mDatabase.delete("contacts", "id = 1", null);
+    mProvider.install();
+    assertEquals(Arrays.asList("2 Mary Jones", "3 Johnny Cash", "4 Joan Baez"), query("jo"));
+  }
+
+  @Test public void matchExpression() {
+    assertEquals("", FtsSuggestionProvider.toMatchExpression(" ,; "));
+    assertEquals("john* sm*", FtsSuggestionProvider.toMatchExpression("John Sm"));
+    assertEquals("mary* or* cash*", FtsSuggestionProvider.toMatchExpression("\"Mary\" OR -cash*"));
+  }
+
+  private void insert(final long id, final String name) {
+    final ContentValues values = new ContentValues();
+    values.put("id", id);
+    values.put("name", name);
+    mDatabase.insertOrThrow("contacts", null, values);
+  }
+
+  private List<String> query(final String constraint) {
+    return query(constraint, 100);
+  }
+
+  /**
+   * @return the matches, as id and title, by id
+   */
+  private List<String> query(final String constraint, final int limit) {
+    final List<String> rows = new ArrayList<>();
+    final Cursor cursor = mProvider.query(constraint, limit);
+    try {
+      final int id = cursor.getColumnIndexOrThrow(FtsSuggestionProvider.COLUMN_ID);
+      final int title = cursor.getColumnIndexOrThrow(FtsSuggestionProvider.COLUMN_TITLE);
+      while (cursor.moveToNext()) {
+        rows.add(cursor.getLong(id) + " " + cursor.getString(title));
+      }
+    } finally {
+      cursor.close();
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+}
@@ -0,0 +1,245 @@
+package co.djuraev.chipsinput.chips;
+
+import android.support.test.runner.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the entries of {@link LiveSuggestionIndex} snapshots after puts, removals and
+ * compactions, and that readers never see a batch half applied while a writer is busy.
+ */
+@RunWith(AndroidJUnit4.class) public class LiveSuggestionIndexTest {
+  private static final int GROUPS = 20;
+  private static final int GROUP_SIZE = 50;
+
+  @Test public void laterEntryOfAnIdWins() {
+    final List<ChipItem> items = new ArrayList<>();
+    items.add(new ChipItem(1, "one"));
+    items.add(new ChipItem(2, "two"));
+    items.add(new ChipItem(1, "uno"));
+    final LiveSuggestionIndex index = new LiveSuggestionIndex(items);
+    final Map<Long, String> expected = new HashMap<>();
+    expected.put(1L, "uno");
+    expected.put(2L, "two");
+    assertEquals(expected, getEntries(index.getSnapshot()));
+    assertEquals(2, index.getSnapshot().size());
+  }
+
+  @Test public void putAddsAndReplaces() {
+    final LiveSuggestionIndex index = new LiveSuggestionIndex(newItems(3));
+    final LiveSuggestionIndex.Snapshot before = index.getSnapshot();
+    index.edit().put(new ChipItem(3, "three")).put(new ChipItem(1, "replaced")).apply();
+    final LiveSuggestionIndex.Snapshot after = index.getSnapshot();
+    final Map<Long, String> expected = new HashMap<>();
+    expected.put(0L, "title0");
+    expected.put(1L, "replaced");
+    expected.put(2L, "title2");
+    expected.put(3L, "three");
+    assertEquals(expected, getEntries(after));
+    assertEquals(4, after.size());
+    assertTrue(after.getVersion() > before.getVersion());
+    // The earlier snapshot does not change.
+    assertEquals(getEntries(new LiveSuggestionIndex(newItems(3)).getSnapshot()),
+        getEntries(before));
+  }
+
+  @Test public void removeDropsEntries() {
+    final LiveSuggestionIndex index = new LiveSuggestionIndex(newItems(4));
+    index.edit().remove(1).remove(99).apply();
+    final Map<Long, String> expected = new HashMap<>();
+    expected.put(0L, "title0");
+    expected.put(2L, "title2");
+    expected.put(3L, "title3");
+    assertEquals(expected, getEntries(index.getSnapshot()));
+  }
+
+  @Test public void lastChangeOfABatchWins() {
+    final LiveSuggestionIndex index = new LiveSuggestionIndex(newItems(2));
+    index.edit()
+        .put(new ChipItem(5, "five"))
+        .remove(5)
+        .remove(1)
+        .put(new ChipItem(1, "back"))
+        .put(new ChipItem(0, "first"))
+        .put(new ChipItem(0, "second"))
+        .apply();
+    final Map<Long, String> expected = new HashMap<>();
+    expected.put(0L, "second");
+    expected.put(1L, "back");
+    assertEquals(expected, getEntries(index.getSnapshot()));
+  }
+
+  @Test public void hasRowsOfEarlierSnapshots() {
+    final LiveSuggestionIndex index = new LiveSuggestionIndex(newItems(100));
+    final LiveSuggestionIndex.Snapshot first = index.getSnapshot();
+    assertTrue(first.hasRowsOf(first));
+    index.edit().put(new ChipItem(100, "appended")).apply();
+    final LiveSuggestionIndex.Snapshot appended = index.getSnapshot();
+    assertTrue(appended.hasRowsOf(first));
+    assertFalse(first.hasRowsOf(appended));
+    index.edit().remove(3).apply();
+    assertTrue(index.getSnapshot().hasRowsOf(appended));
+    index.replaceAll(newItems(100));
+    assertFalse(index.getSnapshot().hasRowsOf(first));
+  }
+
+  @Test public void compactsManySegments() {
+    final LiveSuggestionIndex index = new LiveSuggestionIndex(newItems(100));
+    final Map<Long, String> expected = getEntries(index.getSnapshot());
+    int compactions = 0;
+    for (int batch = 0; batch < 30; batch++) {
+      final LiveSuggestionIndex.Snapshot before = index.getSnapshot();
+      final ChipItem item = new ChipItem(1000 + batch, "batch" + batch);
+      index.edit().put(item).apply();
+      expected.put(item.getId(), item.getTitle());
+      final LiveSuggestionIndex.Snapshot after = index.getSnapshot();
+      assertEquals(expected, getEntries(after));
+      if (!after.hasRowsOf(before)) {
+        // Compacted into a single segment without removed rows.
+        compactions++;
+        assertEquals(after.size(), after.getRowCount());
+      }
+    }
+    assertTrue("Compactions: " + compactions, compactions > 0 && compactions < 30);
+  }
+
+  @Test public void compactsRemovedRows() {
+    final LiveSuggestionIndex index = new LiveSuggestionIndex(newItems(100));
+    final LiveSuggestionIndex.Snapshot first = index.getSnapshot();
+    final LiveSuggestionIndex.Batch batch = index.edit();
+    for (int id = 0; id < 60; id++) {
+      batch.remove(id);
+    }
+    batch.apply();
+    final LiveSuggestionIndex.Snapshot after = index.getSnapshot();
+    assertEquals(40, after.size());
+    assertEquals(40, after.getRowCount());
+    assertFalse(after.hasRowsOf(first));
+    for (int i = 0; i < after.size(); i++) {
+      assertEquals(60 + i, after.getId(after.getLiveRow(i)));
+    }
+  }
+
+  @Test public void readersSeeWholeBatches() throws Throwable {
+    final LiveSuggestionIndex index = new LiveSuggestionIndex();
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final Thread writer = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          // Every batch puts or removes all the ids of a group.
+          final Random random = new Random(9);
+          for (int batch = 0; batch < 3000; batch++) {
+            final int group = random.nextInt(GROUPS);
+            final boolean remove = random.nextInt(5) == 0;
+            final LiveSuggestionIndex.Batch edit = index.edit();
+            for (int i = 0; i < GROUP_SIZE; i++) {
+              final long id = group * GROUP_SIZE + i;
+              if (remove) {
+                edit.remove(id);
+              } else {
+                edit.put(new ChipItem(id, "g" + group + " b" + batch + " i" + i));
+              }
+            }
+            edit.apply();
+          }
+        } catch (final Throwable e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          writing.set(false);
+        }
+      }
+    });
+    final List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      readers.add(new Thread(new Runnable() {
+        @Override public void run() {
+          try {
+            long version = -1;
+            while (writing.get() && failure.get() == null) {
+              final LiveSuggestionIndex.Snapshot snapshot = index.getSnapshot();
+              assertTrue(snapshot.getVersion() >= version);
+              version = snapshot.getVersion();
+              assertConsistent(snapshot);
+            }
+          } catch (final Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      }));
+    }
+    for (final Thread reader : readers) {
+      reader.start();
+    }
+    writer.start();
+    writer.join();
+    for (final Thread reader : readers) {
+      reader.join();
+    }
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    assertConsistent(index.getSnapshot());
+  }
+
+  /**
+   * Check that every group of a snapshot is either missing or whole, with all its titles from the
+   * same batch.
+   */
+  private static void assertConsistent(final LiveSuggestionIndex.Snapshot snapshot) {
+    final Map<Long, String> entries = getEntries(snapshot);
+    for (int group = 0; group < GROUPS; group++) {
+      String batch = null;
+      int count = 0;
+      for (int i = 0; i < GROUP_SIZE; i++) {
+        final String title = entries.get((long) (group * GROUP_SIZE + i));
+        if (title == null) {
+          continue;
+        }
+        count++;
+        final String titleBatch = title.substring(0, title.lastIndexOf(' '));
+        if (batch == null) {
+          batch = titleBatch;
+        }
+        assertEquals("Version " + snapshot.getVersion(), batch, titleBatch);
+      }
+      assertTrue("Group " + group + " has " + count + " ids", count == 0 || count == GROUP_SIZE);
+    }
+  }
+
+  /**
+   * @return the title of each live id, after checking no id is live twice and the live count
+   */
+  private static Map<Long, String> getEntries(final LiveSuggestionIndex.Snapshot snapshot) {
+    final Map<Long, String> entries = new HashMap<>();
+    int live = 0;
+    for (int row = 0; row < snapshot.getRowCount(); row++) {
+      if (snapshot.isLive(row)) {
+        live++;
+        assertNull("Id live twice", entries.put(snapshot.getId(row), snapshot.getTitle(row)));
+      }
+    }
+    assertEquals(live, snapshot.size());
+    for (int i = 0; i < snapshot.size(); i++) {
+      assertTrue(snapshot.isLive(snapshot.getLiveRow(i)));
+    }
+    return entries;
+  }
+
+  private static List<ChipItem> newItems(final int count) {
+    final List<ChipItem> items = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      items.add(new ChipItem(i, "title" + i));
+    }
+    return items;
+  }
+}
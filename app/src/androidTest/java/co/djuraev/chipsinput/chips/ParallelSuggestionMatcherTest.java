@@ -0,0 +1,131 @@
+package co.djuraev.chipsinput.chips;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link ParallelSuggestionMatcher} returns the rows a sequential scan returns, in the
+ * same order, whatever the number of threads, and logs how long a scan takes with each.
+ */
+@RunWith(AndroidJUnit4.class) public class ParallelSuggestionMatcherTest {
+  private static final String TAG = "ParallelSuggestionMatcherTest";
+  private static final int[] THREAD_COUNTS = { 1, 2, 3, 4, 8 };
+
+  @Test public void matchesLikeSequentialScan() {
+    final Random random = new Random(11);
+    for (final int threads : THREAD_COUNTS) {
+      final ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        // A threshold of zero splits every scan.
+        final ParallelSuggestionMatcher matcher = new ParallelSuggestionMatcher(0, threads, pool);
+        for (int round = 0; round < 200; round++) {
+          final int rowCount = random.nextInt(round < 20 ? 40 : 20000);
+          final BitSet matching = randomRows(random, rowCount);
+          final int maxResults = random.nextInt(4) == 0 ? Integer.MAX_VALUE : random.nextInt(300);
+          final String message = threads + " threads, " + rowCount + " rows, " + maxResults;
+          assertArrayEquals(message, scan(matching, rowCount, maxResults),
+              matcher.match(rowCount, maxResults, predicate(matching)));
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+  }
+
+  @Test public void belowThresholdScansOnCallingThread() {
+    final Thread caller = Thread.currentThread();
+    final int[] rows = new ParallelSuggestionMatcher(100).match(99, 10,
+        new ParallelSuggestionMatcher.RowPredicate() {
+          @Override public boolean matches(final int row) {
+            assertSame(caller, Thread.currentThread());
+            return row % 7 == 0;
+          }
+        });
+    assertArrayEquals(new int[] { 0, 7, 14, 21, 28, 35, 42, 49, 56, 63 }, rows);
+  }
+
+  @Test public void logScanTimes() {
+    final Random random = new Random(13);
+    final int rowCount = 200000;
+    final String[] titles = new String[rowCount];
+    for (int row = 0; row < rowCount; row++) {
+      titles[row] = "name" + random.nextInt(1000000) + "@example.com";
+    }
+    final ParallelSuggestionMatcher.RowPredicate predicate =
+        new ParallelSuggestionMatcher.RowPredicate() {
+          @Override public boolean matches(final int row) {
+            return titles[row].contains("9999");
+          }
+        };
+    int[] expected = null;
+    for (final int threads : THREAD_COUNTS) {
+      final ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        final ParallelSuggestionMatcher matcher = new ParallelSuggestionMatcher(0, threads, pool);
+        // Warm up.
+        for (int i = 0; i < 5; i++) {
+          matcher.match(rowCount, Integer.MAX_VALUE, predicate);
+        }
+        final int rounds = 20;
+        int[] rows = null;
+        final long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+          rows = matcher.match(rowCount, Integer.MAX_VALUE, predicate);
+        }
+        Log.i(TAG, String.format(Locale.US, "%d rows, %d threads: %d us per scan", rowCount,
+            threads, (System.nanoTime() - start) / rounds / 1000));
+        if (expected == null) {
+          expected = rows;
+        } else {
+          assertArrayEquals(expected, rows);
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+  }
+
+  private static BitSet randomRows(final Random random, final int rowCount) {
+    final BitSet rows = new BitSet(rowCount);
+    // From no matches to almost all rows matching.
+    final int density = random.nextInt(101);
+    for (int row = 0; row < rowCount; row++) {
+      if (random.nextInt(100) < density) {
+        rows.set(row);
+      }
+    }
+    return rows;
+  }
+
+  private static ParallelSuggestionMatcher.RowPredicate predicate(final BitSet matching) {
+    return new ParallelSuggestionMatcher.RowPredicate() {
+      @Override public boolean matches(final int row) {
+        return matching.get(row);
+      }
+    };
+  }
+
+  private static int[] scan(final BitSet matching, final int rowCount, final int maxResults) {
+    int[] rows = new int[0];
+    int count = 0;
+    for (int row = 0; row < rowCount && count < maxResults; row++) {
+      if (matching.get(row)) {
+        if (count == rows.length) {
+          rows = Arrays.copyOf(rows, Math.max(16, count * 2));
+        }
+        rows[count++] = row;
+      }
+    }
+    return Arrays.copyOf(rows, count);
+  }
+}
@@ -0,0 +1,138 @@
+package co.djuraev.chipsinput.chips;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link PhoneNumbers} recognizes the numbers the regular expression it replaced
+ * matches, that numbers written in different ways get the same canonical form, and that
+ * {@link RecipientEditTextView} in phone mode takes such numbers for duplicates.
+ */
+@RunWith(AndroidJUnit4.class) public class PhoneNumbersTest {
+  // The pattern Utils.phoneNumberMatch used before.
+  private static final Pattern PHONE_PATTERN = Pattern.compile(
+      "(\\+[0-9]+[\\- \\.]*)?"
+          + "(1?[ ]*\\([0-9]+\\)[\\- \\.]*)?"
+          + "([0-9][0-9\\- \\.][0-9\\- \\.]+[0-9])");
+  private static final String[] SAMPLES = {
+      "",
+      "1",
+      "1234",
+      "123",
+      "+1",
+      "+1 425 222 2342",
+      "+1-425-222-2342",
+      "(425) 222-2342",
+      "1 (425) 222-2342",
+      "1(425)222-2342",
+      "+1 (425) 222-2342",
+      "+44 1 (20) 7946 0958",
+      "()222-2342",
+      "(425 222-2342",
+      "425) 222-2342",
+      "425 222 2342 ",
+      " 425 222 2342",
+      "2 (425) 222-2342",
+      "+ 425 222 2342",
+      "++1 425",
+      "425.222.2342",
+      "john@example.com",
+  };
+  // Pieces numbers are made of, so random strings are numbers often enough.
+  private static final String[] PIECES =
+      { "+", "1", "42", "5550123", " ", "  ", "-", ".", "(", ")", "0", "x" };
+
+  @Test public void samplesMatchPattern() {
+    for (final String sample : SAMPLES) {
+      assertEquals(sample, PHONE_PATTERN.matcher(sample).matches(),
+          PhoneNumbers.isPhoneNumber(sample));
+    }
+  }
+
+  @Test public void randomTextMatchesPattern() {
+    final Random random = new Random(17);
+    int numbers = 0;
+    for (int i = 0; i < 200000; i++) {
+      final StringBuilder text = new StringBuilder();
+      final int pieces = random.nextInt(10);
+      for (int j = 0; j < pieces; j++) {
+        text.append(PIECES[random.nextInt(PIECES.length)]);
+      }
+      final boolean expected = PHONE_PATTERN.matcher(text).matches();
+      assertEquals(text.toString(), expected, PhoneNumbers.isPhoneNumber(text));
+      if (expected) {
+        numbers++;
+      }
+    }
+    // Both outcomes were exercised.
+    assertTrue("Numbers: " + numbers, numbers > 1000 && numbers < 190000);
+  }
+
+  @Test public void partialNumbers() {
+    assertTrue(PhoneNumbers.isPartialNumber("4"));
+    assertTrue(PhoneNumbers.isPartialNumber("+1 (42"));
+    assertTrue(PhoneNumbers.isPartialNumber("222-23"));
+    assertFalse(PhoneNumbers.isPartialNumber(""));
+    assertFalse(PhoneNumbers.isPartialNumber("+"));
+    assertFalse(PhoneNumbers.isPartialNumber("(-)"));
+    assertFalse(PhoneNumbers.isPartialNumber("1+"));
+    assertFalse(PhoneNumbers.isPartialNumber("john4"));
+    assertEquals("14252222342", PhoneNumbers.getDigits("+1 (425) 222-2342"));
+  }
+
+  @Test public void canonicalForms() {
+    assertEquals("+14252222342", PhoneNumbers.canonicalize("+1 (425) 222-2342", "1"));
+    assertEquals("+14252222342", PhoneNumbers.canonicalize("(425) 222-2342", "1"));
+    assertEquals("+14252222342", PhoneNumbers.canonicalize("425.222.2342", "1"));
+    // Long enough to already have the country code.
+    assertEquals("+14252222342", PhoneNumbers.canonicalize("1 425 222 2342", "1"));
+    // International prefix, and trunk prefix.
+    assertEquals("+442079460958", PhoneNumbers.canonicalize("0044 20 7946 0958", "1"));
+    assertEquals("+442079460958", PhoneNumbers.canonicalize("020 7946 0958", "44"));
+    assertEquals("+442079460958", PhoneNumbers.canonicalize("+44 20 7946 0958", null));
+    // Without a default country code, national numbers are only their digits.
+    assertEquals("4252222342", PhoneNumbers.canonicalize("425-222-2342", null));
+  }
+
+  @Test public void phoneModeTakesSameNumberForDuplicate() {
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final RecipientEditTextView view = createView(true);
+        view.addRecipient(new ChipItem(1, "+1 425 222 2342"), true);
+        view.addRecipient(new ChipItem(2, "(425) 222-2342"), true);
+        view.addRecipient(new ChipItem(3, "1 (425) 222-2342"), true);
+        view.addRecipient(new ChipItem(4, "425.222.2343"), true);
+        assertEquals(Arrays.asList("+1 425 222 2342", "425.222.2343"), view.getAllChipsValue());
+
+        // Without phone mode only equal titles are duplicates.
+        final RecipientEditTextView plain = createView(false);
+        plain.addRecipient(new ChipItem(1, "+1 425 222 2342"), true);
+        plain.addRecipient(new ChipItem(2, "(425) 222-2342"), true);
+        plain.addRecipient(new ChipItem(3, "+1 425 222 2342"), true);
+        assertEquals(Arrays.asList("+1 425 222 2342", "(425) 222-2342"),
+            plain.getAllChipsValue());
+      }
+    });
+  }
+
+  private static RecipientEditTextView createView(final boolean phoneQuery) {
+    final RecipientEditTextView view =
+        new RecipientEditTextView(InstrumentationRegistry.getTargetContext(), null);
+    view.setPhoneQuery(phoneQuery);
+    view.setDefaultCountryCode("1");
+    view.setmChipAllowDuplicate(false);
+    // Chips are sized to the width of the field.
+    view.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+    view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    return view;
+  }
+}
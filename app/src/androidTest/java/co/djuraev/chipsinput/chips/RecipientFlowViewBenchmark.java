@@ -0,0 +1,181 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link RecipientFlowView} keeps the work of a change, a measure and layout and a
+ * draw to what changed and what is on screen, by counting the chips each looks at with few and
+ * with many chips, and that rows broken again after a change are those of a field showing the
+ * same chips from the start. The time each phase takes, scrolling included, is logged.
+ */
+@RunWith(AndroidJUnit4.class) public class RecipientFlowViewBenchmark {
+  private static final String TAG = "RecipientFlowViewBenchmark";
+  private static final int WIDTH = 1080;
+  private static final int HEIGHT = 600;
+  private static final int FEW_CHIPS = 100;
+  private static final int MANY_CHIPS = 5000;
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int ROUNDS = 100;
+  private static final String[] PHASES = { "add", "measure and layout", "scroll", "draw" };
+  private static final int ADD = 0;
+  private static final int MEASURE_AND_LAYOUT = 1;
+  private static final int SCROLL = 2;
+  private static final int DRAW = 3;
+
+  @Test public void costDoesNotGrowWithChips() {
+    final long[] fewNanos = new long[PHASES.length];
+    final long[] manyNanos = new long[PHASES.length];
+    final int[] fewChips = new int[PHASES.length];
+    final int[] manyChips = new int[PHASES.length];
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final Canvas canvas =
+            new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+        run(context, canvas, FEW_CHIPS, WARMUP_ROUNDS, new long[PHASES.length],
+            new int[PHASES.length]);
+        run(context, canvas, FEW_CHIPS, ROUNDS, fewNanos, fewChips);
+        run(context, canvas, MANY_CHIPS, ROUNDS, manyNanos, manyChips);
+      }
+    });
+    for (int phase = 0; phase < PHASES.length; phase++) {
+      Log.i(TAG, String.format(Locale.US, "%s: %d chips %d us, %d chips %d us", PHASES[phase],
+          FEW_CHIPS, fewNanos[phase] / ROUNDS / 1000, MANY_CHIPS,
+          manyNanos[phase] / ROUNDS / 1000));
+    }
+    // Times vary from run to run, the chips looked at do not. With fifty times the chips, a
+    // phase looks at about as many, rows differing a little in how many chips they hold, and at
+    // a small part of them all.
+    for (int phase = 0; phase < PHASES.length; phase++) {
+      final String message = PHASES[phase] + ": at most " + fewChips[phase] + " of " + FEW_CHIPS
+          + " chips looked at, " + manyChips[phase] + " of " + MANY_CHIPS;
+      assertTrue(message, manyChips[phase] <= fewChips[phase] * 2);
+      assertTrue(message, manyChips[phase] <= MANY_CHIPS / 20);
+    }
+    // Adding a chip breaks the last rows again, and drawing draws those in view.
+    assertTrue(manyChips[ADD] > 0);
+    assertTrue(manyChips[DRAW] > 0);
+    // The width did not change, so no rows are broken again by the layout.
+    assertEquals(0, manyChips[MEASURE_AND_LAYOUT]);
+  }
+
+  @Test public void reflowMatchesFreshLayout() {
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final Random random = new Random(7);
+        final RecipientFlowView view = new RecipientFlowView(context);
+        layOut(view);
+        int next = 0;
+        for (int step = 0; step < 300; step++) {
+          if (view.getChipCount() > 0 && random.nextInt(3) == 0) {
+            view.removeRecipient(random.nextInt(view.getChipCount()));
+          } else {
+            // Titles of very different widths, so rows take chips back after a removal.
+            view.addRecipient(ChipItem.generateTokenizedEntry(
+                title(next++, random.nextInt(4) == 0 ? 40 : random.nextInt(4))));
+          }
+          layOut(view);
+          final RecipientFlowView fresh = new RecipientFlowView(context);
+          fresh.setChipsList(view.getAllChipsValue());
+          layOut(fresh);
+          final String message = "Step " + step;
+          assertEquals(message, fresh.getMeasuredHeight(), view.getMeasuredHeight());
+          assertEquals(message, fresh.getInput().getLeft(), view.getInput().getLeft());
+          assertEquals(message, fresh.getInput().getTop(), view.getInput().getTop());
+        }
+      }
+    });
+  }
+
+  @Test public void notifiesListener() {
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final RecipientFlowView view =
+            new RecipientFlowView(InstrumentationRegistry.getTargetContext());
+        final int[] changes = new int[1];
+        view.setChipListener(new RecipientEditTextView.IChipListener() {
+          @Override public void onDataChanged() {
+            changes[0]++;
+          }
+        });
+        final List<String> chips = new ArrayList<>();
+        chips.add("a@example.com");
+        chips.add("b@example.com");
+        view.setChipsList(chips);
+        assertEquals(1, changes[0]);
+        view.addRecipient(ChipItem.generateTokenizedEntry("c@example.com"));
+        assertEquals(2, changes[0]);
+        view.removeRecipient(0);
+        assertEquals(3, changes[0]);
+        view.setChipsList(new ArrayList<String>());
+        assertEquals(4, changes[0]);
+      }
+    });
+  }
+
+  /**
+   * Show some chips, then time adding one, the measure and layout it causes, scrolling and
+   * drawing, each a number of times, and keep the most chips each looked at in a round.
+   */
+  private static void run(final Context context, final Canvas canvas, final int chips,
+      final int rounds, final long[] nanos, final int[] chipsLookedAt) {
+    final RecipientFlowView view = new RecipientFlowView(context);
+    final List<String> titles = new ArrayList<>(chips);
+    for (int i = 0; i < chips; i++) {
+      titles.add(title(i, i % 3));
+    }
+    view.setChipsList(titles);
+    layOut(view);
+    for (int i = 0; i < rounds; i++) {
+      int broken = view.getBrokenChipCount();
+      long start = System.nanoTime();
+      view.addRecipient(ChipItem.generateTokenizedEntry(title(chips + i, i % 3)));
+      nanos[ADD] += System.nanoTime() - start;
+      chipsLookedAt[ADD] = Math.max(chipsLookedAt[ADD], view.getBrokenChipCount() - broken);
+      broken = view.getBrokenChipCount();
+      start = System.nanoTime();
+      layOut(view);
+      nanos[MEASURE_AND_LAYOUT] += System.nanoTime() - start;
+      chipsLookedAt[MEASURE_AND_LAYOUT] = Math.max(chipsLookedAt[MEASURE_AND_LAYOUT],
+          view.getBrokenChipCount() - broken);
+      start = System.nanoTime();
+      // Within the content of the smaller field too, so both draw a full view.
+      view.scrollTo(0, i % 4 * HEIGHT / 8);
+      nanos[SCROLL] += System.nanoTime() - start;
+      final int drawn = view.getDrawnChipCount();
+      start = System.nanoTime();
+      view.draw(canvas);
+      nanos[DRAW] += System.nanoTime() - start;
+      chipsLookedAt[DRAW] = Math.max(chipsLookedAt[DRAW], view.getDrawnChipCount() - drawn);
+    }
+  }
+
+  private static String title(final int i, final int length) {
+    final StringBuilder title = new StringBuilder(String.format(Locale.US, "r%05d", i));
+    for (int j = 0; j < length; j++) {
+      title.append("name");
+    }
+    return title.append("@example.com").toString();
+  }
+
+  private static void layOut(final View view) {
+    view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.AT_MOST));
+    view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+  }
+}
@@ -0,0 +1,160 @@
+package co.djuraev.chipsinput.chips;
+
+import android.app.Instrumentation;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.Editable;
+import android.text.SpannableStringBuilder;
+import android.view.View;
+import java.util.Locale;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the work {@link RecipientEditTextView} does for a keystroke depends on the token
+ * being typed and not on how many chips the field holds.
+ */
+@RunWith(AndroidJUnit4.class) public class RecipientTextWatcherTest {
+  private static final String TYPED = "mary@example.com ";
+
+  @Test public void keystrokeWorkDoesNotGrowWithField() {
+    final Work small = typeAfterChips(5);
+    final Work large = typeAfterChips(200);
+    assertEquals(0, small.copies);
+    assertEquals(0, large.copies);
+    assertEquals(small.reads, large.reads);
+    assertEquals(small.spanRange, large.spanRange);
+  }
+
+  @Test public void chipCountFollowsEdits() {
+    final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    final int[] removed = new int[1];
+    instrumentation.runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final RecipientEditTextView view = createView(new CountingFactory());
+        for (int i = 0; i < 3; i++) {
+          view.addRecipient(ChipItem.generateTokenizedEntry(address(i)), true);
+        }
+        view.setChipListener(new RecipientEditTextView.IChipListener() {
+          @Override public void onDataChanged() {
+            removed[0]++;
+          }
+        });
+        final Editable text = view.getText();
+        text.append("x");
+        assertEquals(0, removed[0]);
+        // Deleting the whole text drops every chip.
+        text.clear();
+        assertEquals(1, removed[0]);
+        text.append("y");
+        assertEquals(1, removed[0]);
+      }
+    });
+  }
+
+  private static Work typeAfterChips(final int chips) {
+    final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    final CountingFactory factory = new CountingFactory();
+    final Work work = new Work();
+    instrumentation.runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final RecipientEditTextView view = createView(factory);
+        for (int i = 0; i < chips; i++) {
+          view.addRecipient(ChipItem.generateTokenizedEntry(address(i)), true);
+        }
+        final Editable text = view.getText();
+        view.setSelection(text.length());
+        factory.mEditable.reset();
+        for (int i = 0; i < TYPED.length(); i++) {
+          text.append(TYPED.charAt(i));
+        }
+        work.copies = factory.mEditable.mCopies;
+        work.reads = factory.mEditable.mReads;
+        work.spanRange = factory.mEditable.mSpanRange;
+      }
+    });
+    return work;
+  }
+
+  private static RecipientEditTextView createView(final CountingFactory factory) {
+    final RecipientEditTextView view =
+        new RecipientEditTextView(InstrumentationRegistry.getTargetContext(), null);
+    view.setEditableFactory(factory);
+    view.setText("");
+    // Chips are sized to the width of the field.
+    view.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+    view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    return view;
+  }
+
+  private static String address(final int i) {
+    // All of the same length, so the fields differ only in the number of chips.
+    return String.format(Locale.US, "c%04d@example.com", i);
+  }
+
+  private static final class Work {
+    int copies;
+    int reads;
+    int spanRange;
+  }
+
+  private static final class CountingFactory extends Editable.Factory {
+    CountingEditable mEditable;
+
+    @Override public Editable newEditable(final CharSequence source) {
+      mEditable = new CountingEditable(source);
+      return mEditable;
+    }
+  }
+
+  /**
+   * Counts what the view itself asks of its text: copies of the whole text, single chars read,
+   * and the total length of the ranges searched for chips.
+   */
+  private static final class CountingEditable extends SpannableStringBuilder {
+    int mCopies;
+    int mReads;
+    int mSpanRange;
+
+    CountingEditable(final CharSequence source) {
+      super(source);
+    }
+
+    void reset() {
+      mCopies = 0;
+      mReads = 0;
+      mSpanRange = 0;
+    }
+
+    @Override public String toString() {
+      if (calledFromView()) {
+        mCopies++;
+      }
+      return super.toString();
+    }
+
+    @Override public char charAt(final int where) {
+      if (calledFromView()) {
+        mReads++;
+      }
+      return super.charAt(where);
+    }
+
+    @Override public <T> T[] getSpans(final int queryStart, final int queryEnd,
+        final Class<T> kind) {
+      if (kind == DrawableRecipientChip.class && calledFromView()) {
+        mSpanRange += queryEnd - queryStart;
+      }
+      return super.getSpans(queryStart, queryEnd, kind);
+    }
+
+    private static boolean calledFromView() {
+      // The frames are this method, the overridden one and its caller.
+      final StackTraceElement caller = new Throwable().getStackTrace()[2];
+      return caller.getClassName().startsWith(RecipientEditTextView.class.getName());
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package co.djuraev.chipsinput.chips;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import java.io.File;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes entries with {@link SuggestionIndexWriter}, opens them with
+ * {@link MappedSuggestionIndex} and checks that queries find the entries having a word starting
+ * with the query, as a scan of the entries does.
+ */
+@RunWith(AndroidJUnit4.class) public class SuggestionIndexTest {
+  private static final String[] QUERIES = { "", "a", "na", "name1", "name12", "x4", "ex", "zz" };
+  private static final Executor NOW = new Executor() {
+    @Override public void execute(final Runnable command) {
+      command.run();
+    }
+  };
+
+  @Test public void writeOpenAndQuery() throws IOException {
+    final Random random = new Random(1);
+    final List<ChipItem> items = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      items.add(new ChipItem(i,
+          "Name" + random.nextInt(500) + " x" + random.nextInt(50) + "@example.com"));
+    }
+    final File file = new File(getDir(), "index");
+    SuggestionIndexWriter.write(items.iterator(), file);
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+
+    final MappedSuggestionIndex index = MappedSuggestionIndex.open(file, NOW);
+    assertEquals(items.size(), index.size());
+    for (int row = 0; row < items.size(); row++) {
+      assertEquals(items.get(row).getId(), index.getId(row));
+      assertEquals(items.get(row).getTitle(), index.getTitle(row));
+    }
+    for (final String query : QUERIES) {
+      final Set<Integer> expected = scan(items, query);
+      final int[] rows = index.search(query, 0, Integer.MAX_VALUE);
+      final Set<Integer> actual = new HashSet<>();
+      for (final int row : rows) {
+        assertTrue(query, actual.add(row));
+      }
+      assertEquals(query, expected, actual);
+
+      // Pages are the same rows, in the same order.
+      final int[] page = index.search(query, 3, 5);
+      assertEquals(query, Math.max(0, Math.min(5, rows.length - 3)), page.length);
+      for (int i = 0; i < page.length; i++) {
+        assertEquals(query, rows[i + 3], page[i]);
+      }
+    }
+  }
+
+  @Test public void failedWriteLeavesNoFile() throws IOException {
+    // A directory with something in it cannot be replaced by the index.
+    final File file = new File(getDir(), "taken");
+    assertTrue(new File(file, "child").createNewFile());
+    final List<ChipItem> items = new ArrayList<>();
+    items.add(new ChipItem(1, "john@example.com"));
+    try {
+      SuggestionIndexWriter.write(items.iterator(), file);
+      fail();
+    } catch (IOException expected) {
+      // The index is not written.
+    }
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+  }
+
+  @Test public void damagedFileIsRejected() throws IOException {
+    final List<ChipItem> items = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      items.add(new ChipItem(i, "name" + i + "@example.com"));
+    }
+    final File dir = getDir();
+    final File file = new File(dir, "index");
+    SuggestionIndexWriter.write(items.iterator(), file);
+    final long length = file.length();
+    final long[] truncatedLengths = { 0, 4, 31, 32, 33, length / 2, length - 1 };
+    for (final long truncatedLength : truncatedLengths) {
+      final File truncated = new File(dir, "truncated" + truncatedLength);
+      copy(file, truncated, truncatedLength);
+      assertNotOpened("Truncated to " + truncatedLength, truncated);
+    }
+
+    // Headers whose sections would not fit, or whose sizes overflow an int.
+    final int[][] counts = {
+        { 1000, 0, 0, 0 },
+        { Integer.MAX_VALUE, 0, 0, 0 },
+        { 0, Integer.MAX_VALUE, 0, 0 },
+        { 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE },
+        { 0x20000000, 0x20000000, 0, 0 },
+        { -1, 0, 0, 0 },
+        { 0, -1, 0, 0 },
+        { 0, 0, -1, 0 },
+        { 0, 0, 0, Integer.MIN_VALUE },
+    };
+    for (int i = 0; i < counts.length; i++) {
+      final File header = new File(dir, "header" + i);
+      writeHeader(header, counts[i]);
+      assertNotOpened(Arrays.toString(counts[i]), header);
+    }
+  }
+
+  private static void assertNotOpened(final String message, final File file) {
+    try {
+      MappedSuggestionIndex.open(file, NOW);
+      fail(message);
+    } catch (IOException expected) {
+      // The file is not an index that can be read.
+    }
+  }
+
+  private static void copy(final File from, final File to, final long length) throws IOException {
+    final byte[] bytes = new byte[(int) from.length()];
+    final RandomAccessFile in = new RandomAccessFile(from, "r");
+    try {
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+    final RandomAccessFile out = new RandomAccessFile(to, "rw");
+    try {
+      out.write(bytes);
+      out.setLength(length);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Write a header with the given row, term, title char and key char counts, and some room after
+   * it.
+   */
+  private static void writeHeader(final File file, final int[] counts) throws IOException {
+    final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      out.writeInt(MappedSuggestionIndex.MAGIC);
+      out.writeInt(MappedSuggestionIndex.VERSION);
+      for (final int count : counts) {
+        out.writeInt(count);
+      }
+      out.writeLong(0);
+      out.write(new byte[1024]);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static Set<Integer> scan(final List<ChipItem> items, final String query) {
+    final Set<Integer> rows = new HashSet<>();
+    for (int row = 0; row < items.size(); row++) {
+      for (final String word : Utils.normalizeSuggestionKey(items.get(row).getTitle())
+          .split("[^\\p{L}\\p{N}]+")) {
+        if (!word.isEmpty() && word.startsWith(query)) {
+          rows.add(row);
+          break;
+        }
+      }
+    }
+    return rows;
+  }
+
+  private static File getDir() {
+    final File dir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+        "SuggestionIndexTest" + System.nanoTime());
+    assertTrue(dir.mkdirs());
+    return dir;
+  }
+}
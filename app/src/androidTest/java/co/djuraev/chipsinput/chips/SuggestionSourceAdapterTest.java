@@ -0,0 +1,192 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.Filter;
+import android.widget.FrameLayout;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link SuggestionSourceAdapter} shows the first page of a query, loads the next ones
+ * while the dropdown is scrolled, gives up on a source that does not answer and drops pages of a
+ * query that is no longer shown.
+ */
+@RunWith(AndroidJUnit4.class) public class SuggestionSourceAdapterTest {
+  private static final int PAGE_SIZE = 20;
+  private static final Executor NOW = new Executor() {
+    @Override public void execute(final Runnable command) {
+      command.run();
+    }
+  };
+
+  @Test public void loadsFirstPage() throws InterruptedException {
+    final SuggestionSourceAdapter adapter =
+        newAdapter(new InMemorySuggestionSource(items(50), NOW));
+    filter(adapter, "name1");
+    // name1@ and name10@ to name19@.
+    assertEquals(11, adapter.getCount());
+    assertEquals("name1@example.com", adapter.getItem(0).getTitle());
+    filter(adapter, "none");
+    assertEquals(0, adapter.getCount());
+  }
+
+  @Test public void loadsMorePagesWhenScrolled() throws InterruptedException {
+    final SuggestionSourceAdapter adapter =
+        newAdapter(new InMemorySuggestionSource(items(50), NOW));
+    filter(adapter, "name");
+    assertEquals(PAGE_SIZE, adapter.getCount());
+    // Rows before the end do not load anything.
+    showRow(adapter, 0);
+    assertEquals(PAGE_SIZE, adapter.getCount());
+    showRow(adapter, PAGE_SIZE - 1);
+    assertEquals(2 * PAGE_SIZE, adapter.getCount());
+    showRow(adapter, 2 * PAGE_SIZE - 1);
+    assertEquals(50, adapter.getCount());
+    // There is nothing after the last page.
+    showRow(adapter, 49);
+    assertEquals(50, adapter.getCount());
+    for (int i = 0; i < 50; i++) {
+      assertEquals(String.format(Locale.US, "name%d@example.com", i),
+          adapter.getItem(i).getTitle());
+    }
+  }
+
+  @Test public void keepsRowsWhenSourceTimesOut() throws InterruptedException {
+    final ScriptedSource source = new ScriptedSource();
+    final SuggestionSourceAdapter adapter = newAdapter(source);
+    filter(adapter, "a");
+    assertEquals(PAGE_SIZE, adapter.getCount());
+    source.mSilent = true;
+    filter(adapter, "b");
+    // The rows of the last query that was answered stay.
+    assertEquals(PAGE_SIZE, adapter.getCount());
+    assertEquals("a0", adapter.getItem(0).getTitle());
+  }
+
+  @Test public void dropsPagesOfEarlierQuery() throws InterruptedException {
+    final ScriptedSource source = new ScriptedSource();
+    final SuggestionSourceAdapter adapter = newAdapter(source);
+    filter(adapter, "a");
+    showRow(adapter, PAGE_SIZE - 1);
+    assertEquals(1, source.mPending.size());
+    filter(adapter, "b");
+    // The next page of "a" arrives after "b" is shown.
+    source.mPending.get(0).onPageLoaded(ScriptedSource.page("a", PAGE_SIZE, PAGE_SIZE), true);
+    InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    assertEquals(PAGE_SIZE, adapter.getCount());
+    for (int i = 0; i < adapter.getCount(); i++) {
+      assertEquals("b" + i, adapter.getItem(i).getTitle());
+    }
+    // "b" still loads its own next page.
+    showRow(adapter, PAGE_SIZE - 1);
+    assertEquals(2, source.mPending.size());
+  }
+
+  @Test public void latencyDoesNotHoldUpOtherSources() throws InterruptedException {
+    final InMemorySuggestionSource slow = new InMemorySuggestionSource(items(10));
+    slow.setLatency(5000);
+    final InMemorySuggestionSource fast = new InMemorySuggestionSource(items(10));
+    final CountDownLatch slowLoaded = new CountDownLatch(1);
+    final CountDownLatch fastLoaded = new CountDownLatch(1);
+    slow.query("name", 0, PAGE_SIZE, countDown(slowLoaded));
+    fast.query("name", 0, PAGE_SIZE, countDown(fastLoaded));
+    // Both share the suggestion thread, the slow one must not block it while waiting.
+    assertTrue(fastLoaded.await(1, TimeUnit.SECONDS));
+    assertEquals(1, slowLoaded.getCount());
+    assertTrue(slowLoaded.await(10, TimeUnit.SECONDS));
+  }
+
+  /**
+   * A source answering first pages at once, unless silent, and keeping the callbacks of the next
+   * pages for the test to answer.
+   */
+  private static final class ScriptedSource implements SuggestionSource {
+    final List<Callback> mPending = new ArrayList<>();
+    volatile boolean mSilent;
+
+    @Override public void query(final String query, final int offset, final int pageSize,
+        final Callback callback) {
+      if (offset == 0 && !mSilent) {
+        callback.onPageLoaded(page(query, offset, pageSize), true);
+      } else {
+        synchronized (mPending) {
+          mPending.add(callback);
+        }
+      }
+    }
+
+    static List<ChipItem> page(final String query, final int offset, final int pageSize) {
+      final List<ChipItem> page = new ArrayList<>(pageSize);
+      for (int i = offset; i < offset + pageSize; i++) {
+        page.add(new ChipItem(i, query + i));
+      }
+      return page;
+    }
+  }
+
+  private static SuggestionSource.Callback countDown(final CountDownLatch latch) {
+    return new SuggestionSource.Callback() {
+      @Override public void onPageLoaded(final List<ChipItem> page, final boolean hasMore) {
+        latch.countDown();
+      }
+    };
+  }
+
+  private static List<ChipItem> items(final int count) {
+    final List<ChipItem> items = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      items.add(new ChipItem(i, String.format(Locale.US, "name%d@example.com", i)));
+    }
+    return items;
+  }
+
+  private static SuggestionSourceAdapter newAdapter(final SuggestionSource source) {
+    return new SuggestionSourceAdapter(InstrumentationRegistry.getTargetContext(), source,
+        PAGE_SIZE);
+  }
+
+  /**
+   * Filter on a constraint and wait until the results are shown.
+   */
+  private static void filter(final SuggestionSourceAdapter adapter, final String constraint)
+      throws InterruptedException {
+    final Filter[] filter = new Filter[1];
+    // A filter publishes its results on the thread it was created on.
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        filter[0] = adapter.getFilter();
+      }
+    });
+    final CountDownLatch done = new CountDownLatch(1);
+    filter[0].filter(constraint, new Filter.FilterListener() {
+      @Override public void onFilterComplete(final int count) {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Get the view of a row, as the dropdown does when it is scrolled to it, and wait for the pages
+   * that loads.
+   */
+  private static void showRow(final SuggestionSourceAdapter adapter, final int position) {
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override public void run() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        adapter.getView(position, null, new FrameLayout(context));
+      }
+    });
+    InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+  }
+}
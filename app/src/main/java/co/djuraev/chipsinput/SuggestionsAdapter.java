@@ -1,6 +1,14 @@
 package co.djuraev.chipsinput;
 
 import android.content.Context;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.text.PrecomputedTextCompat;
+import android.support.v4.widget.TextViewCompat;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,84 +19,419 @@ import android.widget.TextView;
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import co.djuraev.chipsinput.chips.ChipItem;
-import java.util.ArrayList;
+import co.djuraev.chipsinput.chips.ChipsMetrics;
+import co.djuraev.chipsinput.chips.FuzzySuggestionIndex;
+import co.djuraev.chipsinput.chips.LiveSuggestionIndex;
+import co.djuraev.chipsinput.chips.ParallelSuggestionMatcher;
+import co.djuraev.chipsinput.chips.PhoneNumbers;
+import co.djuraev.chipsinput.chips.SuggestionResultCache;
+import co.djuraev.chipsinput.chips.Utils;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 public class SuggestionsAdapter extends BaseAdapter implements Filterable {
+  /**
+   * How many rows of a result get their text prepared by the filter. Rows further down are
+   * highlighted as they are bound.
+   */
+  private static final int PREPARED_ROWS = 100;
+
   private LayoutInflater layoutInflater;
-  private List<ChipItem> categoryTags;
-  private List<ChipItem> filterableTags;
+  // Can be changed from any thread; the filter searches its current snapshot.
+  private final LiveSuggestionIndex suggestionIndex;
+  // Snapshot the shown rows belong to. Only touched on the main thread.
+  private LiveSuggestionIndex.Snapshot categoryTags;
+  // Rows of categoryTags shown in the dropdown, null for all live rows.
+  private int[] filterableRows;
+  // Highlighted, and when possible precomputed, text of the first filterableRows, or null.
+  private CharSequence[] rowTexts;
+  private String highlightedQuery = "";
+  // Taken from the row views, so text can be laid out off the main thread to fit them. A view
+  // only resolves some of them, e.g. its text direction, once attached, so binding keeps them
+  // up to date.
+  private volatile PrecomputedTextCompat.Params textMetricsParams;
+  // Row views handed out by getView, to rebind them in place when only their content changes.
+  private final Set<TagsHolder> boundHolders =
+      Collections.newSetFromMap(new WeakHashMap<TagsHolder, Boolean>());
+  private volatile boolean fuzzyMatching;
+  private volatile boolean phoneMatching;
+  private volatile int maxResults = Integer.MAX_VALUE;
+  // Rows of each query, with their prepared texts.
+  private final SuggestionResultCache<FilteredRows> resultCache = new SuggestionResultCache<>();
+  private final ParallelSuggestionMatcher matcher = new ParallelSuggestionMatcher();
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private volatile ChipsMetrics metrics;
+  // Text the shown rows were filtered with, null before the first query.
+  private CharSequence lastConstraint;
+  // The only filter, so queries and refilters run one after the other on its thread.
+  private final TagsFilter filter = new TagsFilter();
+  private final Runnable refilter = new Runnable() {
+    @Override public void run() {
+      if (lastConstraint != null) {
+        getFilter().filter(lastConstraint);
+      }
+    }
+  };
 
   SuggestionsAdapter(Context context, List<ChipItem> categoryTags) {
-    this.categoryTags = new ArrayList<>(categoryTags);
-    this.filterableTags = new ArrayList<>(categoryTags);
+    suggestionIndex = new LiveSuggestionIndex(categoryTags);
+    this.categoryTags = suggestionIndex.getSnapshot();
     layoutInflater = LayoutInflater.from(context);
+    suggestionIndex.addListener(new LiveSuggestionIndex.Listener() {
+      @Override public void onSnapshotChanged(LiveSuggestionIndex.Snapshot snapshot) {
+        resultCache.invalidate();
+        // Show the change in the dropdown, once for a burst of batches.
+        handler.removeCallbacks(refilter);
+        handler.post(refilter);
+      }
+    });
+  }
+
+  /**
+   * Get the suggestions, to add, update or remove some of them from any thread, e.g. while syncing.
+   * Typing is never blocked by a change, and the dropdown follows it.
+   */
+  public LiveSuggestionIndex getSuggestionIndex() {
+    return suggestionIndex;
+  }
+
+  /**
+   * Replace the suggestions. Results of earlier queries are forgotten. Call it on the main thread.
+   */
+  public void setItems(List<ChipItem> items) {
+    suggestionIndex.replaceAll(items);
+    categoryTags = suggestionIndex.getSnapshot();
+    // Before any query every row is shown; after one, nothing is until the query is run again.
+    filterableRows = lastConstraint == null ? null : new int[0];
+    rowTexts = null;
+    highlightedQuery = "";
+    notifyDataSetChanged();
+  }
+
+  /**
+   * When enabled, titles containing a word within one or two typos of the query are suggested
+   * after the exact matches.
+   */
+  public void setFuzzyMatching(boolean fuzzyMatching) {
+    if (this.fuzzyMatching != fuzzyMatching) {
+      this.fuzzyMatching = fuzzyMatching;
+      resultCache.invalidate();
+    }
+  }
+
+  /**
+   * When enabled, e.g. for a field taking phone numbers, a query that is part of a number also
+   * matches titles having its digits, however the number is written in them. Set it along with
+   * {@link co.djuraev.chipsinput.chips.RecipientEditTextView#setPhoneQuery}.
+   */
+  public void setPhoneMatching(boolean phoneMatching) {
+    if (this.phoneMatching != phoneMatching) {
+      this.phoneMatching = phoneMatching;
+      resultCache.invalidate();
+    }
+  }
+
+  /**
+   * Limit the number of suggestions shown for a query.
+   */
+  public void setMaxResults(int maxResults) {
+    if (this.maxResults != maxResults) {
+      this.maxResults = maxResults;
+      resultCache.invalidate();
+    }
+  }
+
+  /**
+   * Report how long finding suggestions takes, or stop with null.
+   */
+  public void setMetrics(ChipsMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Get the cache of results per query, e.g. to look at its hit rate.
+   */
+  public SuggestionResultCache<?> getResultCache() {
+    return resultCache;
+  }
+
+  private int getRow(int position) {
+    return filterableRows == null ? categoryTags.getLiveRow(position) : filterableRows[position];
   }
 
   @Override public int getCount() {
-    return filterableTags.size();
+    return filterableRows == null ? categoryTags.size() : filterableRows.length;
   }
 
   @Override public Object getItem(int i) {
-    return filterableTags.get(i);
+    // Entries only exist for the rows that are picked.
+    return categoryTags.createItem(getRow(i));
   }
 
   @Override public long getItemId(int i) {
-    return filterableTags.get(i).getId();
+    return categoryTags.getId(getRow(i));
+  }
+
+  @Override public boolean hasStableIds() {
+    return true;
   }
 
   @Override public View getView(int i, View view, ViewGroup viewGroup) {
-    ChipItem categoryTag = filterableTags.get(i);
     TagsHolder tagsHolder;
 
     if (view == null) {
       view = layoutInflater.inflate(R.layout.item_chip_drop_down, viewGroup, false);
       tagsHolder = new TagsHolder(view);
       view.setTag(tagsHolder);
+      boundHolders.add(tagsHolder);
+      if (textMetricsParams == null) {
+        textMetricsParams = TextViewCompat.getTextMetricsParams(tagsHolder.title);
+      }
     } else {
       tagsHolder = (TagsHolder) view.getTag();
     }
 
-    tagsHolder.title.setText(categoryTag.getTitle());
+    bind(tagsHolder, i);
     return view;
   }
 
+  private void bind(TagsHolder tagsHolder, int i) {
+    int row = getRow(i);
+    tagsHolder.position = i;
+    CharSequence text = rowTexts != null && i < rowTexts.length ? rowTexts[i] : null;
+    if (text instanceof PrecomputedTextCompat) {
+      PrecomputedTextCompat precomputed = (PrecomputedTextCompat) text;
+      PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(tagsHolder.title);
+      if (precomputed.getParams().equals(params)) {
+        TextViewCompat.setPrecomputedText(tagsHolder.title, precomputed);
+      } else {
+        // Laid out for other params, which setPrecomputedText rejects. Show it as plain text, and
+        // have the next query lay out for these.
+        textMetricsParams = params;
+        tagsHolder.title.setText(text);
+      }
+    } else if (text != null) {
+      tagsHolder.title.setText(text);
+    } else if (highlightedQuery.isEmpty()) {
+      // Bind straight from the title arena.
+      tagsHolder.title.setText(categoryTags.getTitleChars(row), categoryTags.getTitleStart(row),
+          categoryTags.getTitleLength(row));
+    } else {
+      tagsHolder.title.setText(highlight(categoryTags, row, highlightedQuery));
+    }
+  }
+
+  /**
+   * Get the title of a row with the match of the query in bold.
+   */
+  private static CharSequence highlight(LiveSuggestionIndex.Snapshot tags, int row, String query) {
+    String title = tags.getTitle(row);
+    int start = getHighlightStart(tags, row, query);
+    if (start < 0) {
+      // Fuzzy matches have no exact range to highlight.
+      return title;
+    }
+    SpannableString text = new SpannableString(title);
+    text.setSpan(new StyleSpan(Typeface.BOLD), start, start + query.length(),
+        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    return text;
+  }
+
+  /**
+   * @return where the match of the query starts in the title of a row, or -1 if there is none
+   */
+  private static int getHighlightStart(LiveSuggestionIndex.Snapshot tags, int row, String query) {
+    int keyIndex = query.isEmpty() ? -1 : tags.indexOfKey(row, query);
+    return keyIndex < 0 ? -1 : tags.keyIndexToTitleIndex(row, keyIndex);
+  }
+
+  private static boolean sameHighlight(LiveSuggestionIndex.Snapshot tags, int row,
+      String oldQuery, String newQuery) {
+    int start = getHighlightStart(tags, row, newQuery);
+    return start == getHighlightStart(tags, row, oldQuery)
+        && (start < 0 || oldQuery.length() == newQuery.length());
+  }
+
   @Override public Filter getFilter() {
-    return new TagsFilter();
+    return filter;
+  }
+
+  private static final class FilteredRows {
+    final LiveSuggestionIndex.Snapshot tags;
+    final int[] rows;
+    final String query;
+    final CharSequence[] texts;
+    // Params the texts were laid out with, null if they were only highlighted.
+    final PrecomputedTextCompat.Params params;
+
+    FilteredRows(LiveSuggestionIndex.Snapshot tags, int[] rows, String query,
+        CharSequence[] texts, PrecomputedTextCompat.Params params) {
+      this.tags = tags;
+      this.rows = rows;
+      this.query = query;
+      this.texts = texts;
+      this.params = params;
+    }
   }
 
+  /**
+   * Filters on a thread of its own, the only one touching its fields.
+   */
   private final class TagsFilter extends Filter {
+    // Rows looked at by the last findRows, for the metrics.
+    private int scannedRows;
+    // Snapshot the fuzzy index was last brought up to date with.
+    private LiveSuggestionIndex.Snapshot fuzzyIndexTags;
+    private FuzzySuggestionIndex fuzzyIndex;
 
     @Override protected FilterResults performFiltering(CharSequence charSequence) {
+      final ChipsMetrics metrics = SuggestionsAdapter.this.metrics;
+      final long startTime = metrics != null ? System.nanoTime() : 0;
+      scannedRows = 0;
       final FilterResults results = new FilterResults();
-      List<ChipItem> list = new ArrayList<>();
+      final String query = Utils.normalizeSuggestionKey(charSequence);
+      // A snapshot is published before the cache is invalidated, so read them the other way round.
+      int generation = resultCache.getGeneration();
+      final LiveSuggestionIndex.Snapshot tags = suggestionIndex.getSnapshot();
+      final PrecomputedTextCompat.Params params = textMetricsParams;
+      FilteredRows filtered = resultCache.get(query);
+      if (filtered == null || filtered.tags != tags) {
+        // Rows of another snapshot may have been renumbered.
+        final int[] rows = findRows(tags, query);
+        filtered = new FilteredRows(tags, rows, query, prepareTexts(tags, rows, query, params),
+            params);
+        resultCache.put(query, filtered, generation);
+      } else if (filtered.params != params) {
+        // The rows are cached from before the text could be laid out.
+        filtered = new FilteredRows(tags, filtered.rows, query,
+            prepareTexts(tags, filtered.rows, query, params), params);
+        resultCache.put(query, filtered, generation);
+      }
+
+      results.values = filtered;
+      results.count = filtered.rows.length;
+      if (metrics != null) {
+        metrics.onOperation(ChipsMetrics.Operation.FILTER_SUGGESTIONS,
+            System.nanoTime() - startTime, scannedRows);
+      }
+      return results;
+    }
 
-      for (int i = 0; i < categoryTags.size(); i++) {
-        if (categoryTags.get(i).getTitle().toLowerCase().contains(charSequence.toString().toLowerCase())) {
-          list.add(categoryTags.get(i));
+    /**
+     * Highlight and lay out the text of the first rows here, on the filter thread, so binding a
+     * row is a plain assignment. The texts are cached with the rows, so a query seen again, e.g.
+     * after a backspace, is not laid out again.
+     */
+    private CharSequence[] prepareTexts(LiveSuggestionIndex.Snapshot tags, int[] rows,
+        String query, PrecomputedTextCompat.Params params) {
+      CharSequence[] texts = new CharSequence[Math.min(rows.length, PREPARED_ROWS)];
+      for (int i = 0; i < texts.length; i++) {
+        CharSequence text = highlight(tags, rows[i], query);
+        texts[i] = params == null ? text : PrecomputedTextCompat.create(text, params);
+      }
+      return texts;
+    }
+
+    /**
+     * Get the fuzzy index of a snapshot. It is built on the first fuzzy query and then only given
+     * the rows later snapshots append; it is built again only once rows were renumbered, e.g. by a
+     * compaction. Removed rows stay in it and are skipped by the caller.
+     */
+    private FuzzySuggestionIndex getFuzzyIndex(LiveSuggestionIndex.Snapshot tags) {
+      if (fuzzyIndex == null || !tags.hasRowsOf(fuzzyIndexTags)) {
+        fuzzyIndex = new FuzzySuggestionIndex(tags.keys());
+      } else {
+        for (int row = fuzzyIndexTags.getRowCount(); row < tags.getRowCount(); row++) {
+          fuzzyIndex.add(tags.getKey(row), row);
         }
       }
+      fuzzyIndexTags = tags;
+      return fuzzyIndex;
+    }
 
-      results.values = list;
-      results.count = list.size();
-      return results;
+    private int[] findRows(final LiveSuggestionIndex.Snapshot tags, final String query) {
+      int limit = maxResults;
+      // In phone mode part of a number also matches the number written any other way; the rows
+      // having its digits are looked up in the digit index rather than tested one by one.
+      final BitSet digitRows = phoneMatching && PhoneNumbers.isPartialNumber(query)
+          ? tags.findRowsWithDigits(PhoneNumbers.getDigits(query)) : null;
+      // Large lists are scanned on all cores.
+      int[] matches = matcher.match(tags.getRowCount(), limit,
+          new ParallelSuggestionMatcher.RowPredicate() {
+            @Override public boolean matches(int row) {
+              return tags.isLive(row) && matchesExactly(tags, row, query, digitRows);
+            }
+          });
+      scannedRows = tags.getRowCount();
+      if (!fuzzyMatching || matches.length >= limit) {
+        return matches;
+      }
+
+      // Near misses go after the exact matches, closest first.
+      int[] fuzzyRows = getFuzzyIndex(tags).search(query);
+      scannedRows += fuzzyRows.length;
+      int[] rows = Arrays.copyOf(matches, Math.min(limit, matches.length + fuzzyRows.length));
+      int count = matches.length;
+      for (int i = 0; i < fuzzyRows.length && count < rows.length; i++) {
+        if (tags.isLive(fuzzyRows[i])
+            && !matchesExactly(tags, fuzzyRows[i], query, digitRows)) {
+          rows[count++] = fuzzyRows[i];
+        }
+      }
+      return count == rows.length ? rows : Arrays.copyOf(rows, count);
+    }
+
+    private boolean matchesExactly(LiveSuggestionIndex.Snapshot tags, int row, String query,
+        BitSet digitRows) {
+      return digitRows != null && digitRows.get(row) || tags.keyContains(row, query);
     }
 
     @Override
     protected void publishResults(CharSequence charSequence, FilterResults filterResults) {
       if (filterResults.values == null) return;
 
-      filterableTags.clear();
-      List<ChipItem> list = (List<ChipItem>) filterResults.values;
-      if (!list.isEmpty()) {
-        filterableTags.addAll(list);
+      FilteredRows filtered = (FilteredRows) filterResults.values;
+      if (filtered.tags.getVersion() < categoryTags.getVersion()) {
+        // Rows of a newer snapshot are shown already.
+        return;
+      }
+      lastConstraint = charSequence;
+      LiveSuggestionIndex.Snapshot oldTags = categoryTags;
+      int[] oldRows = filterableRows;
+      String oldQuery = highlightedQuery;
+      categoryTags = filtered.tags;
+      filterableRows = filtered.rows;
+      rowTexts = filtered.texts;
+      highlightedQuery = filtered.query;
+      if (oldTags != filtered.tags || oldRows == null || oldRows.length != filtered.rows.length) {
+        notifyDataSetChanged();
+        return;
+      }
+
+      // Same number of rows: leave the list laid out as it is and only rebind the rows on screen
+      // whose content changed.
+      for (TagsHolder holder : boundHolders) {
+        int position = holder.position;
+        if (position >= filtered.rows.length) {
+          continue;
+        }
+        int row = filtered.rows[position];
+        if (oldRows[position] != row
+            || !sameHighlight(filtered.tags, row, oldQuery, filtered.query)) {
+          bind(holder, position);
+        }
       }
-      notifyDataSetChanged();
     }
   }
 
   class TagsHolder {
     @BindView(R.id.title) TextView title;
+    // Position last bound to the view.
+    int position;
 
     TagsHolder(View view) {
       ButterKnife.bind(this, view);
@@ -0,0 +1,256 @@
+package co.djuraev.chipsinput.chips;
+
+import android.util.LruCache;
+
+/**
+ * Extracts the first address of RFC 822 text, with the same result as the first token of
+ * {@link android.text.util.Rfc822Tokenizer#tokenize(CharSequence)}. The text is scanned once and
+ * only up to the end of the first token, and names and addresses that appear verbatim in it are
+ * cut out instead of being built char by char. Results for recently parsed Strings are memoized,
+ * as committing a chip parses the same text several times.
+ */
+public final class AddressParser {
+  private static final int CACHE_SIZE = 64;
+  // Cached for text without any address, since LruCache does not take null values.
+  private static final Address NONE = new Address(null, "");
+  private static final LruCache<String, Address> sCache = new LruCache<>(CACHE_SIZE);
+
+  /**
+   * Name and address of an RFC 822 token.
+   */
+  public static final class Address {
+    private final String mName;
+    private final String mAddress;
+
+    Address(final String name, final String address) {
+      mName = name;
+      mAddress = address;
+    }
+
+    /**
+     * @return the display name, empty if the address was given in angle brackets without one, null
+     * if there were no angle brackets
+     */
+    public String getName() {
+      return mName;
+    }
+
+    public String getAddress() {
+      return mAddress;
+    }
+  }
+
+  private final CharSequence mText;
+  // The name is the range [mNameStart, mNameEnd) of the text until it stops being a plain copy of
+  // it, then mName.
+  private int mNameStart;
+  private int mNameEnd;
+  private StringBuilder mName;
+  private char mLastNameChar;
+  // Blanks since the last char of the name, collapsed into one space if more of the name follows.
+  private boolean mBlankPending;
+  // Index of the blank if it was a single space of the text, else -1.
+  private int mBlankIndex;
+  // The same for the address, the concatenation of everything in angle brackets.
+  private int mAddressStart;
+  private int mAddressEnd;
+  private StringBuilder mAddress;
+
+  private AddressParser(final CharSequence text) {
+    mText = text;
+    reset();
+  }
+
+  /**
+   * Parse the first address of some text.
+   *
+   * @return the address, or null if the text has none
+   */
+  public static Address parse(final CharSequence text) {
+    if (text == null) {
+      return null;
+    }
+    if (!(text instanceof String)) {
+      return parse(text, 0, text.length());
+    }
+    Address address = sCache.get((String) text);
+    if (address == null) {
+      address = new AddressParser(text).parseFirst(0, text.length());
+      sCache.put((String) text, address == null ? NONE : address);
+    }
+    return address == NONE ? null : address;
+  }
+
+  /**
+   * Parse the first address of a range of some text, without copying the range.
+   *
+   * @return the address, or null if the range has none
+   */
+  public static Address parse(final CharSequence text, final int start, final int end) {
+    return new AddressParser(text).parseFirst(start, end);
+  }
+
+  /**
+   * @return the first address of the text, or the text itself if it has none
+   */
+  public static String getAddress(final String text) {
+    final Address address = parse(text);
+    return address != null ? address.getAddress() : text;
+  }
+
+  private Address parseFirst(int i, final int end) {
+    while (i < end) {
+      char c = mText.charAt(i);
+      if (c == ',' || c == ';') {
+        i++;
+        final Address address = createAddress();
+        if (address != null) {
+          return address;
+        }
+        // Empty token.
+        reset();
+      } else if (c == '"') {
+        i++;
+        while (i < end) {
+          c = mText.charAt(i);
+          if (c == '"') {
+            i++;
+            break;
+          } else if (c == '\\') {
+            if (i + 1 < end) {
+              appendName(mText.charAt(i + 1), -1);
+            }
+            i += 2;
+          } else {
+            appendName(c, -1);
+            i++;
+          }
+        }
+      } else if (c == '(') {
+        // Comments are not part of the name or address.
+        int level = 1;
+        i++;
+        while (i < end && level > 0) {
+          c = mText.charAt(i);
+          if (c == ')') {
+            level--;
+          } else if (c == '(') {
+            level++;
+          } else if (c == '\\') {
+            i++;
+          }
+          i++;
+        }
+      } else if (c == '<') {
+        i++;
+        final int start = i;
+        while (i < end && mText.charAt(i) != '>') {
+          i++;
+        }
+        appendAddress(start, i);
+        if (i < end) {
+          i++;
+        }
+      } else if (c == ' ') {
+        appendBlank(i);
+        i++;
+      } else {
+        appendName(c, i);
+        i++;
+      }
+    }
+    return createAddress();
+  }
+
+  private void reset() {
+    mNameStart = -1;
+    mNameEnd = -1;
+    mName = null;
+    mBlankPending = false;
+    mBlankIndex = -1;
+    mAddressStart = -1;
+    mAddressEnd = -1;
+    mAddress = null;
+  }
+
+  private boolean hasName() {
+    return mName != null ? mName.length() > 0 : mNameStart >= 0;
+  }
+
+  private void appendBlank(final int index) {
+    if (mBlankPending) {
+      mBlankIndex = -1;
+    } else {
+      mBlankPending = true;
+      mBlankIndex = index;
+    }
+  }
+
+  /**
+   * @param index where the char is in the text, or -1 if it was unescaped from a quoted string
+   */
+  private void appendName(final char c, final int index) {
+    if (c == '\0') {
+      // Rfc822Tokenizer marks blanks with NUL, so NULs of the text act as blanks too.
+      appendBlank(-1);
+      return;
+    }
+    // Blanks in front of the name, and next to a quoted space, are dropped.
+    final boolean space = mBlankPending && hasName() && mLastNameChar != ' ' && c != ' ';
+    mBlankPending = false;
+    mLastNameChar = c;
+    if (mName == null && index >= 0) {
+      if (mNameStart < 0) {
+        mNameStart = index;
+        mNameEnd = index + 1;
+        return;
+      }
+      if (space ? mBlankIndex == mNameEnd && index == mNameEnd + 1 : index == mNameEnd) {
+        mNameEnd = index + 1;
+        return;
+      }
+    }
+    if (mName == null) {
+      mName = new StringBuilder();
+      if (mNameStart >= 0) {
+        mName.append(mText, mNameStart, mNameEnd);
+      }
+    }
+    if (space) {
+      mName.append(' ');
+    }
+    mName.append(c);
+  }
+
+  private void appendAddress(final int start, final int end) {
+    if (start == end) {
+      return;
+    }
+    if (mAddress == null && mAddressStart < 0) {
+      mAddressStart = start;
+      mAddressEnd = end;
+      return;
+    }
+    if (mAddress == null) {
+      mAddress = new StringBuilder().append(mText, mAddressStart, mAddressEnd);
+    }
+    mAddress.append(mText, start, end);
+  }
+
+  private Address createAddress() {
+    final String name;
+    if (mName != null) {
+      name = mName.toString();
+    } else {
+      name = mNameStart < 0 ? "" : mText.subSequence(mNameStart, mNameEnd).toString();
+    }
+    if (mAddress != null) {
+      return new Address(name, mAddress.toString());
+    } else if (mAddressStart >= 0) {
+      return new Address(name, mText.subSequence(mAddressStart, mAddressEnd).toString());
+    } else if (!name.isEmpty()) {
+      return new Address(null, name);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,73 @@
+package co.djuraev.chipsinput.chips;
+
+import android.util.LruCache;
+import android.widget.AutoCompleteTextView.Validator;
+
+/**
+ * Validator remembering the answers of another one for recently seen tokens, both valid and
+ * invalid, and the tokens it fixed. Tokens are looked up with surrounding whitespace trimmed, so
+ * the wrapped validator must not depend on it. Call {@link #invalidate()} when the rules of the
+ * wrapped validator change, e.g. when its list of allowed domains is updated.
+ * {@link RecipientEditTextView#setValidator} wraps validators in one automatically.
+ */
+public class CachingValidator implements Validator {
+  public static final int DEFAULT_MAX_ENTRIES = 128;
+
+  private final Validator mValidator;
+  private final LruCache<String, Boolean> mValid;
+  private final LruCache<String, String> mFixed;
+
+  public CachingValidator(final Validator validator) {
+    this(validator, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * @param maxEntries how many tokens to remember answers for, separately for isValid and fixText
+   */
+  public CachingValidator(final Validator validator, final int maxEntries) {
+    mValidator = validator;
+    mValid = new LruCache<>(maxEntries);
+    mFixed = new LruCache<>(maxEntries);
+  }
+
+  /**
+   * @return the validator whose answers are cached
+   */
+  public Validator getValidator() {
+    return mValidator;
+  }
+
+  @Override public boolean isValid(final CharSequence text) {
+    final String key = normalize(text);
+    Boolean valid = mValid.get(key);
+    if (valid == null) {
+      valid = mValidator.isValid(key);
+      mValid.put(key, valid);
+    }
+    return valid;
+  }
+
+  @Override public CharSequence fixText(final CharSequence invalidText) {
+    final String key = normalize(invalidText);
+    String fixed = mFixed.get(key);
+    if (fixed == null) {
+      final CharSequence result = mValidator.fixText(key);
+      // Keep a copy, the validator may hand out mutable text.
+      fixed = result == null ? "" : result.toString();
+      mFixed.put(key, fixed);
+    }
+    return fixed;
+  }
+
+  /**
+   * Forget every remembered answer.
+   */
+  public void invalidate() {
+    mValid.evictAll();
+    mFixed.evictAll();
+  }
+
+  private static String normalize(final CharSequence text) {
+    return text == null ? "" : text.toString().trim();
+  }
+}
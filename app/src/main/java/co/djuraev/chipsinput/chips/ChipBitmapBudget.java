@@ -0,0 +1,117 @@
+package co.djuraev.chipsinput.chips;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Accounts for the bitmap bytes held by the chips in the text of a field, and keeps them within a
+ * budget by releasing the bitmaps of the chips drawn least recently. A released chip renders its
+ * bitmap again when it is drawn, so the field holds at most the budget plus the chip being drawn,
+ * however many chips it has. Only used on the main thread.
+ */
+final class ChipBitmapBudget {
+  // Chips holding a bitmap, least recently drawn first.
+  private final LinkedHashMap<ChipBitmapDrawable, Boolean> mHeld =
+      new LinkedHashMap<>(16, 0.75f, true);
+  // Chips taken out of the text, released once the current edit is over unless they come back.
+  private final ArrayList<ChipBitmapDrawable> mRemoved = new ArrayList<>();
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Runnable mReleaseRemoved = new Runnable() {
+    @Override public void run() {
+      for (final ChipBitmapDrawable chip : mRemoved) {
+        if (!mHeld.containsKey(chip)) {
+          chip.release();
+        }
+      }
+      mRemoved.clear();
+    }
+  };
+  private long mBudget;
+  private long mBytes;
+
+  ChipBitmapBudget(final long budget) {
+    mBudget = budget;
+  }
+
+  long getBudget() {
+    return mBudget;
+  }
+
+  void setBudget(final long budget) {
+    mBudget = budget;
+    trim(null);
+  }
+
+  /**
+   * @return the bytes of the bitmaps held by chips in the text
+   */
+  long getBytes() {
+    return mBytes;
+  }
+
+  /**
+   * Start accounting for a chip put into the text.
+   */
+  void onAdded(final ChipBitmapDrawable chip) {
+    if (chip.hasBitmap() && mHeld.put(chip, Boolean.TRUE) == null) {
+      mBytes += chip.getByteCount();
+      trim(chip);
+    }
+  }
+
+  /**
+   * Release the bitmap of a chip taken out of the text, after the current edit so a chip moved
+   * within the text keeps it. It is rendered again if the chip comes back later.
+   */
+  void onRemoved(final ChipBitmapDrawable chip) {
+    if (mHeld.remove(chip) != null) {
+      mBytes -= chip.getByteCount();
+    }
+    if (mRemoved.isEmpty()) {
+      mHandler.post(mReleaseRemoved);
+    }
+    mRemoved.add(chip);
+  }
+
+  void onRendered(final ChipBitmapDrawable chip) {
+    if (mHeld.put(chip, Boolean.TRUE) == null) {
+      mBytes += chip.getByteCount();
+    }
+    trim(chip);
+  }
+
+  void onDrawn(final ChipBitmapDrawable chip) {
+    // Moves it to the end of the access order.
+    mHeld.get(chip);
+  }
+
+  /**
+   * Release the bitmaps of every chip, e.g. when the text is replaced or memory runs low. Chips
+   * still in the text are accounted for again once they render.
+   */
+  void releaseAll() {
+    for (final ChipBitmapDrawable chip : mHeld.keySet()) {
+      chip.release();
+    }
+    mHeld.clear();
+    mBytes = 0;
+  }
+
+  /**
+   * Release bitmaps until the bytes fit the budget, except the one of a chip being drawn.
+   */
+  private void trim(final ChipBitmapDrawable keep) {
+    final Iterator<ChipBitmapDrawable> chips = mHeld.keySet().iterator();
+    while (mBytes > mBudget && chips.hasNext()) {
+      final ChipBitmapDrawable chip = chips.next();
+      if (chip != keep) {
+        chips.remove();
+        mBytes -= chip.getByteCount();
+        chip.release();
+      }
+    }
+  }
+}
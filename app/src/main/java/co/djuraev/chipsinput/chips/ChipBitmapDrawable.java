@@ -0,0 +1,95 @@
+package co.djuraev.chipsinput.chips;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws the bitmap of a chip, which a {@link ChipBitmapBudget} can take away to save memory. The
+ * bounds stay, so the chip keeps its place in the text, and the bitmap is rendered again the next
+ * time the chip is drawn.
+ */
+final class ChipBitmapDrawable extends Drawable {
+
+  /**
+   * Renders the bitmap of the chip again.
+   */
+  interface Renderer {
+    Bitmap render();
+  }
+
+  private final Renderer mRenderer;
+  private final ChipBitmapBudget mBudget;
+  private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+  private final int mWidth;
+  private final int mHeight;
+  private Bitmap mBitmap;
+  private int mByteCount;
+
+  ChipBitmapDrawable(final Bitmap bitmap, final Renderer renderer, final ChipBitmapBudget budget) {
+    mRenderer = renderer;
+    mBudget = budget;
+    mWidth = bitmap.getWidth();
+    mHeight = bitmap.getHeight();
+    setBitmap(bitmap);
+    setBounds(0, 0, mWidth, mHeight);
+  }
+
+  boolean hasBitmap() {
+    return mBitmap != null;
+  }
+
+  /**
+   * @return the bytes of the bitmap, 0 when it was released
+   */
+  int getByteCount() {
+    return mByteCount;
+  }
+
+  /**
+   * Drop the bitmap. It is not recycled, as the last frame may still draw it.
+   */
+  void release() {
+    setBitmap(null);
+  }
+
+  private void setBitmap(final Bitmap bitmap) {
+    mBitmap = bitmap;
+    mByteCount = bitmap == null ? 0 : bitmap.getByteCount();
+  }
+
+  @Override public void draw(final Canvas canvas) {
+    if (mBitmap == null) {
+      setBitmap(mRenderer.render());
+      mBudget.onRendered(this);
+    } else {
+      mBudget.onDrawn(this);
+    }
+    canvas.drawBitmap(mBitmap, null, getBounds(), mPaint);
+  }
+
+  @Override public int getIntrinsicWidth() {
+    return mWidth;
+  }
+
+  @Override public int getIntrinsicHeight() {
+    return mHeight;
+  }
+
+  @Override public void setAlpha(final int alpha) {
+    mPaint.setAlpha(alpha);
+    invalidateSelf();
+  }
+
+  @Override public void setColorFilter(final ColorFilter colorFilter) {
+    mPaint.setColorFilter(colorFilter);
+    invalidateSelf();
+  }
+
+  @Override public int getOpacity() {
+    return PixelFormat.TRANSLUCENT;
+  }
+}
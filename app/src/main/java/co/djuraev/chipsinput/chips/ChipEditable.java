@@ -0,0 +1,470 @@
+package co.djuraev.chipsinput.chips;
+
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.SpanWatcher;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/**
+ * Editable text that answers {@code getSpans(start, end, DrawableRecipientChip.class)} from an
+ * index of its chips instead of the span store of {@link SpannableStringBuilder}, which the view
+ * asks on every keystroke. The index is a treap of the chips ordered by start, augmented with the
+ * greatest end of each subtree, so a range query costs O(log n + k) for k chips found, and an edit
+ * moves the chips after it by a pending offset on a subtree rather than one by one. Text and every
+ * other span stay with {@link SpannableStringBuilder}, which also still holds the chips, so the
+ * text is laid out and drawn as before and queries answer the same, in the same order.
+ *
+ * <p>The index follows edits from a text watcher that runs before any other, and chips set or
+ * removed directly. Chips the span store drops or adds during an edit are read back from it, with
+ * the order it gave them. While an edit is being applied the index is behind the text, from the
+ * last text watcher's beforeTextChanged on, so chip queries made then, from span watchers, fall
+ * back to the span store. Watchers are told in order of priority and then of being set, so the
+ * watcher marking the index behind is set again after every text watcher of priority 0.
+ */
+public class ChipEditable extends SpannableStringBuilder {
+  /**
+   * Makes {@link ChipEditable}s, for {@link android.widget.TextView#setEditableFactory}.
+   */
+  public static final Editable.Factory FACTORY = new Editable.Factory() {
+    @Override public Editable newEditable(final CharSequence source) {
+      return new ChipEditable(source);
+    }
+  };
+  private static final Comparator<Node> INSERTION_ORDER = new Comparator<Node>() {
+    @Override public int compare(final Node a, final Node b) {
+      if (a.mSpanPriority != b.mSpanPriority) {
+        return b.mSpanPriority - a.mSpanPriority;
+      }
+      return a.mOrder < b.mOrder ? -1 : a.mOrder == b.mOrder ? 0 : 1;
+    }
+  };
+  private final Random mRandom = new Random();
+  private final IdentityHashMap<Object, Node> mNodes = new IdentityHashMap<>();
+  private StaleMarker mStaleMarker;
+  private final ArrayList<Node> mFound = new ArrayList<>();
+  // Order the span store gave the chips it added since the index last caught up.
+  private final IdentityHashMap<Object, Long> mAdded = new IdentityHashMap<>();
+  private Node mRoot;
+  private long mNextOrder;
+  // Set from the end of the watchers' beforeTextChanged to the index catching up with the edit.
+  private boolean mStale;
+  // Chips were set or removed while stale, so the index is rebuilt rather than moved along.
+  private boolean mRebuild;
+  // The text of the edit being applied has no spans, so it brings no chips.
+  private boolean mPlainInsert;
+
+  public ChipEditable(final CharSequence text) {
+    super(text);
+    rebuild();
+    attachWatchers();
+  }
+
+  public ChipEditable() {
+    this("");
+  }
+
+  @SuppressWarnings("unchecked") @Override public <T> T[] getSpans(final int queryStart,
+      final int queryEnd, final Class<T> kind) {
+    // Also while the super constructor copies the text, before the index exists.
+    if (kind != DrawableRecipientChip.class || mStale || mNodes == null) {
+      return super.getSpans(queryStart, queryEnd, kind);
+    }
+    mFound.clear();
+    collect(mRoot, queryStart, queryEnd);
+    // The span store returns spans in the order they were set.
+    Collections.sort(mFound, INSERTION_ORDER);
+    final T[] result = (T[]) Array.newInstance(kind, mFound.size());
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (T) mFound.get(i).mChip;
+    }
+    mFound.clear();
+    return result;
+  }
+
+  @Override public void setSpan(final Object what, final int start, final int end,
+      final int flags) {
+    if (!(what instanceof DrawableRecipientChip) || mNodes == null) {
+      super.setSpan(what, start, end, flags);
+      if (what instanceof TextWatcher && mStaleMarker != null && what != mStaleMarker
+          && (flags & Spanned.SPAN_PRIORITY) == 0) {
+        // Only a span set anew goes after the others.
+        super.removeSpan(mStaleMarker);
+        super.setSpan(mStaleMarker, 0, length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+      }
+      return;
+    }
+    final boolean stale = mStale;
+    mStale = true;
+    try {
+      super.setSpan(what, start, end, flags);
+    } finally {
+      mStale = stale;
+    }
+    if (stale) {
+      mRebuild = true;
+      return;
+    }
+    final Node node = mNodes.remove(what);
+    if (node != null) {
+      setRoot(remove(mRoot, getStart(node), node.mOrder));
+    }
+    // The span store ignores some spans, e.g. empty exclusive ones.
+    if (super.getSpanStart(what) >= 0) {
+      place(what, getOrder(what, node != null ? node.mOrder : mNextOrder++));
+    }
+    mAdded.clear();
+  }
+
+  @Override public void removeSpan(final Object what) {
+    if (!(what instanceof DrawableRecipientChip) || mNodes == null) {
+      super.removeSpan(what);
+      return;
+    }
+    final boolean stale = mStale;
+    mStale = true;
+    try {
+      super.removeSpan(what);
+    } finally {
+      mStale = stale;
+    }
+    if (stale) {
+      mRebuild = true;
+      return;
+    }
+    final Node node = mNodes.remove(what);
+    if (node != null) {
+      setRoot(remove(mRoot, getStart(node), node.mOrder));
+    }
+    mAdded.clear();
+  }
+
+  @Override public void clearSpans() {
+    super.clearSpans();
+    setRoot(null);
+    mNodes.clear();
+    mAdded.clear();
+    attachWatchers();
+  }
+
+  @Override public SpannableStringBuilder replace(final int start, final int end,
+      final CharSequence tb, final int tbstart, final int tbend) {
+    final boolean plainInsert = mPlainInsert;
+    mPlainInsert = !(tb instanceof Spanned);
+    try {
+      return super.replace(start, end, tb, tbstart, tbend);
+    } finally {
+      mPlainInsert = plainInsert;
+    }
+  }
+
+  private void attachWatchers() {
+    // Spans of the highest priority are told of a change first, and of priority 0 last.
+    setSpan(new IndexUpdater(), 0, length(),
+        Spanned.SPAN_INCLUSIVE_INCLUSIVE | Spanned.SPAN_PRIORITY);
+    mStaleMarker = new StaleMarker();
+    setSpan(mStaleMarker, 0, length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+  }
+
+  /**
+   * Move the index along with an edit of the text, which replaced {@code before} chars at a start
+   * with {@code count} ones.
+   */
+  private void onEdited(final int start, final int before, final int count) {
+    mStale = false;
+    if (mRebuild) {
+      rebuild();
+      return;
+    }
+    final int oldEnd = start + before;
+    // Chips after the edit only move; those touching it are read back from the span store.
+    final Node[] parts = split(mRoot, oldEnd + 1, Long.MIN_VALUE);
+    shift(parts[1], count - before);
+    mFound.clear();
+    collectTouching(parts[0], start);
+    Node left = parts[0];
+    for (final Node node : mFound) {
+      left = remove(left, node.mStart, node.mOrder);
+    }
+    setRoot(merge(left, parts[1]));
+    final ArrayList<Node> touching = new ArrayList<>(mFound);
+    mFound.clear();
+    for (final Node node : touching) {
+      mNodes.remove(node.mChip);
+      if (super.getSpanStart(node.mChip) >= 0) {
+        place(node.mChip, getOrder(node.mChip, node.mOrder));
+      }
+    }
+    if (!mPlainInsert) {
+      // Chips copied in with the new text, new or moved from elsewhere in the text.
+      final DrawableRecipientChip[] inserted =
+          super.getSpans(start, start + count, DrawableRecipientChip.class);
+      for (final DrawableRecipientChip chip : inserted) {
+        final Node node = mNodes.get(chip);
+        if (node == null) {
+          place(chip, getOrder(chip, mNextOrder++));
+        } else if (getStart(node) != super.getSpanStart(chip)
+            || node.mEnd - node.mStart != super.getSpanEnd(chip) - super.getSpanStart(chip)) {
+          setRoot(remove(mRoot, getStart(node), node.mOrder));
+          place(chip, getOrder(chip, node.mOrder));
+        }
+      }
+    }
+    mAdded.clear();
+  }
+
+  private void rebuild() {
+    mRebuild = false;
+    setRoot(null);
+    mNodes.clear();
+    mAdded.clear();
+    final DrawableRecipientChip[] chips =
+        super.getSpans(0, length(), DrawableRecipientChip.class);
+    for (final DrawableRecipientChip chip : chips) {
+      place(chip, mNextOrder++);
+    }
+  }
+
+  /**
+   * Add a chip to the index where the span store has it.
+   */
+  private void place(final Object chip, final long order) {
+    final Node node =
+        new Node(chip, order, super.getSpanStart(chip), super.getSpanEnd(chip), mRandom.nextInt());
+    node.mSpanPriority = (super.getSpanFlags(chip) & Spanned.SPAN_PRIORITY)
+        >> Spanned.SPAN_PRIORITY_SHIFT;
+    mNodes.put(chip, node);
+    final Node[] parts = split(mRoot, node.mStart, order);
+    setRoot(merge(merge(parts[0], node), parts[1]));
+  }
+
+  /**
+   * @return the order the span store gave a chip it just added, or the one it had
+   */
+  private long getOrder(final Object chip, final long order) {
+    final Long added = mAdded.get(chip);
+    return added != null ? added : order;
+  }
+
+  private void setRoot(final Node root) {
+    mRoot = root;
+    if (root != null) {
+      root.mParent = null;
+    }
+  }
+
+  /**
+   * @return the start of a chip in the index, with the moves not yet applied to it
+   */
+  private static int getStart(final Node node) {
+    int start = node.mStart;
+    for (Node parent = node.mParent; parent != null; parent = parent.mParent) {
+      start += parent.mShift;
+    }
+    return start;
+  }
+
+  /**
+   * Gather the chips of a subtree a query finds, by the rules of the span store: a span touching
+   * the query only at one end is left out, unless it or the query is empty.
+   */
+  private void collect(final Node node, final int queryStart, final int queryEnd) {
+    if (node == null || node.mMaxEnd < queryStart) {
+      return;
+    }
+    push(node);
+    collect(node.mLeft, queryStart, queryEnd);
+    if (node.mStart > queryEnd) {
+      return;
+    }
+    if (node.mEnd >= queryStart && (node.mStart == node.mEnd || queryStart == queryEnd
+        || node.mStart != queryEnd && node.mEnd != queryStart)) {
+      mFound.add(node);
+    }
+    collect(node.mRight, queryStart, queryEnd);
+  }
+
+  /**
+   * Gather the chips of a subtree ending at or after a position.
+   */
+  private void collectTouching(final Node node, final int position) {
+    if (node == null || node.mMaxEnd < position) {
+      return;
+    }
+    push(node);
+    collectTouching(node.mLeft, position);
+    if (node.mEnd >= position) {
+      mFound.add(node);
+    }
+    collectTouching(node.mRight, position);
+  }
+
+  /**
+   * Split a subtree into the chips before a start and order, and the others.
+   */
+  private static Node[] split(final Node node, final int start, final long order) {
+    if (node == null) {
+      return new Node[2];
+    }
+    push(node);
+    final Node[] parts;
+    if (node.mStart < start || node.mStart == start && node.mOrder < order) {
+      parts = split(node.mRight, start, order);
+      node.mRight = parts[0];
+      parts[0] = node;
+    } else {
+      parts = split(node.mLeft, start, order);
+      node.mLeft = parts[1];
+      parts[1] = node;
+    }
+    update(node);
+    return parts;
+  }
+
+  /**
+   * Join two subtrees, the chips of the first all coming before those of the second.
+   */
+  private static Node merge(final Node first, final Node second) {
+    if (first == null) {
+      return second;
+    }
+    if (second == null) {
+      return first;
+    }
+    if (first.mPriority > second.mPriority) {
+      push(first);
+      first.mRight = merge(first.mRight, second);
+      update(first);
+      return first;
+    }
+    push(second);
+    second.mLeft = merge(first, second.mLeft);
+    update(second);
+    return second;
+  }
+
+  /**
+   * Take the chip of a start and order out of a subtree holding it.
+   */
+  private static Node remove(final Node root, final int start, final long order) {
+    final Node[] parts = split(root, start, order);
+    final Node[] rest = split(parts[1], start, order + 1);
+    return merge(parts[0], rest[1]);
+  }
+
+  private static void shift(final Node node, final int delta) {
+    if (node != null && delta != 0) {
+      node.mStart += delta;
+      node.mEnd += delta;
+      node.mMaxEnd += delta;
+      node.mShift += delta;
+    }
+  }
+
+  private static void push(final Node node) {
+    if (node.mShift != 0) {
+      shift(node.mLeft, node.mShift);
+      shift(node.mRight, node.mShift);
+      node.mShift = 0;
+    }
+  }
+
+  private static void update(final Node node) {
+    int maxEnd = node.mEnd;
+    if (node.mLeft != null) {
+      maxEnd = Math.max(maxEnd, node.mLeft.mMaxEnd);
+      node.mLeft.mParent = node;
+    }
+    if (node.mRight != null) {
+      maxEnd = Math.max(maxEnd, node.mRight.mMaxEnd);
+      node.mRight.mParent = node;
+    }
+    node.mMaxEnd = maxEnd;
+  }
+
+  private static final class Node {
+    final Object mChip;
+    final long mOrder;
+    final int mPriority;
+    // Priority of the span, which orders query results before the order it was set in.
+    int mSpanPriority;
+    // Position of this chip; moves of the chips below not yet applied to them are in mShift.
+    int mStart;
+    int mEnd;
+    int mMaxEnd;
+    int mShift;
+    Node mParent;
+    Node mLeft;
+    Node mRight;
+
+    Node(final Object chip, final long order, final int start, final int end,
+        final int priority) {
+      mChip = chip;
+      mOrder = order;
+      mStart = start;
+      mEnd = end;
+      mMaxEnd = end;
+      mPriority = priority;
+    }
+  }
+
+  /**
+   * Moves the index along with an edit before any other watcher is told of it, and records the
+   * order of the chips the span store adds.
+   */
+  private final class IndexUpdater implements TextWatcher, SpanWatcher, NoCopySpan {
+    @Override public void beforeTextChanged(final CharSequence s, final int start,
+        final int count, final int after) {
+    }
+
+    @Override public void onTextChanged(final CharSequence s, final int start, final int before,
+        final int count) {
+      onEdited(start, before, count);
+    }
+
+    @Override public void afterTextChanged(final Editable s) {
+    }
+
+    @Override public void onSpanAdded(final Spannable text, final Object what, final int start,
+        final int end) {
+      if (what instanceof DrawableRecipientChip) {
+        mAdded.put(what, mNextOrder++);
+      }
+    }
+
+    @Override public void onSpanRemoved(final Spannable text, final Object what, final int start,
+        final int end) {
+      mAdded.remove(what);
+    }
+
+    @Override public void onSpanChanged(final Spannable text, final Object what, final int ostart,
+        final int oend, final int nstart, final int nend) {
+    }
+  }
+
+  /**
+   * Marks the index as behind the text once every other watcher has seen the text before an edit;
+   * kept the last text watcher by {@link #setSpan}.
+   */
+  private final class StaleMarker implements TextWatcher, NoCopySpan {
+    @Override public void beforeTextChanged(final CharSequence s, final int start,
+        final int count, final int after) {
+      mStale = true;
+    }
+
+    @Override public void onTextChanged(final CharSequence s, final int start, final int before,
+        final int count) {
+    }
+
+    @Override public void afterTextChanged(final Editable s) {
+    }
+  }
+}
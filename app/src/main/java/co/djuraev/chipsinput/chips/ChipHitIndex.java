@@ -0,0 +1,193 @@
+package co.djuraev.chipsinput.chips;
+
+import android.graphics.Rect;
+import android.text.Layout;
+import android.text.Spanned;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds the chip under a point of a field's layout. For each line it keeps the chips on it with
+ * their left and right edges, in order, so a point is resolved with a search for its line and a
+ * search among the chips of that line. Edits only make the lines from the one before the first
+ * change on stale, and those are read again from the layout on the next lookup; a new layout, e.g.
+ * for a new width, reads all of them. Only used on the main thread.
+ */
+final class ChipHitIndex {
+  private static final Object[] NO_CHIPS = new Object[0];
+  private Layout mLayout;
+  // Lines before mValidLines are indexed: line l holds the chips from mLineFirst[l] to
+  // mLineFirst[l + 1], with mLeft and mRight their edges in layout coordinates.
+  private int mValidLines;
+  private int[] mLineFirst = new int[16];
+  private DrawableRecipientChip[] mChips = new DrawableRecipientChip[16];
+  private float[] mLeft = new float[16];
+  private float[] mRight = new float[16];
+  // Smallest offset changed since the index was last brought up to date, or -1.
+  private int mChangedOffset = -1;
+  // Lines read from layouts so far, for tests to check lookups only read the stale ones.
+  private int mReadLines;
+
+  /**
+   * Make the lines from an offset on stale, after a change of the text or of its chips there.
+   */
+  void invalidate(final int offset) {
+    if (mChangedOffset < 0 || offset < mChangedOffset) {
+      mChangedOffset = Math.max(offset, 0);
+    }
+  }
+
+  int getReadLineCount() {
+    return mReadLines;
+  }
+
+  void invalidateAll() {
+    mLayout = null;
+    mValidLines = 0;
+    mChangedOffset = -1;
+  }
+
+  /**
+   * Find the chip at a point, or failing that the chip before it on its line, which the space
+   * between two chips belongs to as it does when typing; points after the last chip of the text
+   * are left to typing.
+   *
+   * @param x horizontal position in layout coordinates
+   * @param y vertical position in layout coordinates
+   * @return the chip, or null
+   */
+  DrawableRecipientChip findChip(final Layout layout, final Spanned text, final float x,
+      final float y) {
+    if (layout == null) {
+      return null;
+    }
+    update(layout, text);
+    final int line = layout.getLineForVertical((int) y);
+    if (line >= mValidLines) {
+      return null;
+    }
+    final int first = mLineFirst[line];
+    final int end = mLineFirst[line + 1];
+    // Last chip of the line starting at or before x.
+    int low = first;
+    int high = end - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      if (mLeft[middle] <= x) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    final int chip = low - 1;
+    if (chip < first) {
+      return null;
+    }
+    if (x <= mRight[chip] || chip < mLineFirst[mValidLines] - 1) {
+      return mChips[chip];
+    }
+    return null;
+  }
+
+  /**
+   * Tell whether a point is on the delete icon of a chip, drawn square at its right end.
+   *
+   * @param deleteWidth width of the delete icon
+   */
+  boolean isInDelete(final Layout layout, final Spanned text, final DrawableRecipientChip chip,
+      final float x, final float y, final int deleteWidth) {
+    if (layout == null) {
+      return false;
+    }
+    update(layout, text);
+    final int line = layout.getLineForVertical((int) y);
+    if (line >= mValidLines || y < layout.getLineTop(line) || y > layout.getLineBottom(line)) {
+      return false;
+    }
+    for (int i = mLineFirst[line]; i < mLineFirst[line + 1]; i++) {
+      if (mChips[i] == chip) {
+        return x <= mRight[i] && x >= Math.max(mLeft[i], mRight[i] - deleteWidth);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Read the stale lines from the layout.
+   */
+  private void update(final Layout layout, final Spanned text) {
+    if (layout != mLayout) {
+      mLayout = layout;
+      mValidLines = 0;
+    } else if (mChangedOffset >= 0) {
+      final int offset = Math.min(mChangedOffset, text.length());
+      // The line before the change may take words from the changed one.
+      mValidLines = Math.min(mValidLines, Math.max(layout.getLineForOffset(offset) - 1, 0));
+    }
+    mChangedOffset = -1;
+    final int lineCount = layout.getLineCount();
+    if (mValidLines >= lineCount) {
+      return;
+    }
+    ensureLineCapacity(lineCount + 1);
+    mReadLines += lineCount - mValidLines;
+    final int lineStart = layout.getLineStart(mValidLines);
+    final Object[] chips = getChipsFrom(text, lineStart);
+    int count = mLineFirst[mValidLines];
+    int line = mValidLines;
+    for (final Object span : chips) {
+      final DrawableRecipientChip chip = (DrawableRecipientChip) span;
+      final int start = text.getSpanStart(chip);
+      final Rect bounds = chip.getBounds();
+      if (start < lineStart || bounds.isEmpty()) {
+        continue;
+      }
+      final int chipLine = layout.getLineForOffset(start);
+      while (line < chipLine) {
+        mLineFirst[++line] = count;
+      }
+      ensureChipCapacity(count + 1);
+      mChips[count] = chip;
+      mLeft[count] = layout.getPrimaryHorizontal(start);
+      mRight[count] = mLeft[count] + bounds.width();
+      count++;
+    }
+    while (line < lineCount) {
+      mLineFirst[++line] = count;
+    }
+    // Drop references to chips no longer in the index.
+    Arrays.fill(mChips, count, mChips.length, null);
+    mValidLines = lineCount;
+  }
+
+  /**
+   * @return the chips starting at or after an offset, by start
+   */
+  private static Object[] getChipsFrom(final Spanned text, final int offset) {
+    if (offset >= text.length()) {
+      return NO_CHIPS;
+    }
+    final Object[] chips = text.getSpans(offset, text.length(), DrawableRecipientChip.class);
+    Arrays.sort(chips, new Comparator<Object>() {
+      @Override public int compare(final Object a, final Object b) {
+        return text.getSpanStart(a) - text.getSpanStart(b);
+      }
+    });
+    return chips;
+  }
+
+  private void ensureLineCapacity(final int capacity) {
+    if (mLineFirst.length < capacity) {
+      mLineFirst = Arrays.copyOf(mLineFirst, Math.max(capacity, mLineFirst.length * 2));
+    }
+  }
+
+  private void ensureChipCapacity(final int capacity) {
+    if (mChips.length < capacity) {
+      final int size = Math.max(capacity, mChips.length * 2);
+      mChips = Arrays.copyOf(mChips, size);
+      mLeft = Arrays.copyOf(mLeft, size);
+      mRight = Arrays.copyOf(mRight, size);
+    }
+  }
+}
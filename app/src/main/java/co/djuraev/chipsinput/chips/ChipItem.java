@@ -1,8 +1,5 @@
 package co.djuraev.chipsinput.chips;
 
-import android.text.util.Rfc822Token;
-import android.text.util.Rfc822Tokenizer;
-
 public class ChipItem {
   private long id;
   private String title;
@@ -33,9 +30,7 @@ public class ChipItem {
   }
 
   public static ChipItem generateTokenizedEntry(String address) {
-    final Rfc822Token[] tokens = Rfc822Tokenizer.tokenize(address);
-    final String tokenizedAddress = tokens.length > 0 ? tokens[0].getAddress() : address;
-    return new ChipItem(tokenizedAddress);
+    return new ChipItem(AddressParser.getAddress(address));
   }
 
   public static ChipItem generateEntry(String address) {
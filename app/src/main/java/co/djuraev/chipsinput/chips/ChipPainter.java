@@ -0,0 +1,128 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.AttributeSet;
+import co.djuraev.chipsinput.R;
+
+/**
+ * Measures and draws chips straight onto a canvas, for the views that show chips without spans
+ * or bitmaps. It is styled by the chip attributes of {@link ChipStripView}, with the defaults of
+ * {@link RecipientEditTextView}, and shares the chip background with fields of the same style.
+ */
+final class ChipPainter {
+  private final TextPaint mPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+  private final ChipResources mChipResources;
+  private final Drawable mChipBackground;
+  private final int mChipPadding;
+  private final int mChipHeight;
+  private final int mLineSpacing;
+  private final int mGap;
+  private final int mMaxLines;
+
+  ChipPainter(final Context context, final AttributeSet attrs) {
+    final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.ChipStripView, 0, 0);
+    final Resources resources = context.getResources();
+    final int[] drawableIds = new int[ChipResources.DRAWABLE_COUNT];
+    drawableIds[ChipResources.BACKGROUND] = ChipResources.getDrawableId(a,
+        R.styleable.ChipStripView_chipBackground, R.drawable.chip_background);
+    // The same ids as an edit field with the default style, to share its resources.
+    drawableIds[ChipResources.BACKGROUND_PRESSED] = R.drawable.chip_background_selected;
+    drawableIds[ChipResources.DELETE] = R.drawable.chip_delete;
+    drawableIds[ChipResources.INVALID_BACKGROUND] = R.drawable.chip_background_invalid;
+    mChipResources = ChipResources.obtain(resources, context.getTheme(), drawableIds,
+        R.drawable.ic_contact_picture);
+    Drawable background = mChipResources.newDrawable(ChipResources.BACKGROUND, resources);
+    if (background == null) {
+      background = a.getDrawable(R.styleable.ChipStripView_chipBackground);
+    }
+    mChipBackground =
+        background != null ? background : resources.getDrawable(R.drawable.chip_background);
+    mChipPadding = a.getDimensionPixelSize(R.styleable.ChipStripView_chipPadding,
+        resources.getDimensionPixelSize(R.dimen.chip_padding));
+    mChipHeight = a.getDimensionPixelSize(R.styleable.ChipStripView_chipHeight,
+        resources.getDimensionPixelSize(R.dimen.chip_height));
+    mPaint.setTextSize(a.getDimensionPixelSize(R.styleable.ChipStripView_chipFontSize,
+        resources.getDimensionPixelSize(R.dimen.chip_text_size)));
+    mPaint.setColor(Color.BLACK);
+    mMaxLines = a.getInt(R.styleable.ChipStripView_android_maxLines, Integer.MAX_VALUE);
+    a.recycle();
+    mLineSpacing = resources.getDimensionPixelSize(R.dimen.line_spacing_extra);
+    // Chips are apart by a space, as in the edit field.
+    mGap = (int) Math.ceil(mPaint.measureText(" "));
+  }
+
+  /**
+   * Hold the shared resources, while the view using them is attached.
+   */
+  void acquire() {
+    mChipResources.acquire();
+  }
+
+  void release() {
+    mChipResources.release();
+  }
+
+  int getChipHeight() {
+    return mChipHeight;
+  }
+
+  /**
+   * @return the space between rows of chips
+   */
+  int getLineSpacing() {
+    return mLineSpacing;
+  }
+
+  /**
+   * @return the space between chips of a row
+   */
+  int getGap() {
+    return mGap;
+  }
+
+  /**
+   * @return the maxLines attribute, {@link Integer#MAX_VALUE} if not set
+   */
+  int getMaxLines() {
+    return mMaxLines;
+  }
+
+  float measureText(final CharSequence text) {
+    return mPaint.measureText(text, 0, text.length());
+  }
+
+  /**
+   * @return the width of a chip showing text of some width
+   */
+  int getChipWidth(final float textWidth) {
+    return (int) Math.ceil(textWidth) + mChipPadding * 2;
+  }
+
+  /**
+   * @return the widest text a chip of some width can show
+   */
+  int getMaxTextWidth(final int chipWidth) {
+    return Math.max(0, chipWidth - mChipPadding * 2);
+  }
+
+  CharSequence ellipsize(final CharSequence text, final int maxTextWidth) {
+    return TextUtils.ellipsize(text, mPaint, maxTextWidth, TextUtils.TruncateAt.END);
+  }
+
+  void draw(final Canvas canvas, final CharSequence text, final int left, final int top,
+      final int width) {
+    mChipBackground.setBounds(left, top, left + width, top + mChipHeight);
+    mChipBackground.draw(canvas);
+    // Vertically center the text in the chip.
+    final float textOffset = (mChipHeight - mPaint.descent() - mPaint.ascent()) / 2;
+    canvas.drawText(text, 0, text.length(), left + mChipPadding, top + textOffset, mPaint);
+  }
+}
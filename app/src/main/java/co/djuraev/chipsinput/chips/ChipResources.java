@@ -0,0 +1,152 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.support.v4.content.res.ResourcesCompat;
+import android.util.TypedValue;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Drawables and the default contact photo shared by the chip fields of one style, so a screen
+ * with several fields, or a list of rows with one each, loads and decodes them once. Fields find
+ * their resources by the drawable ids their attributes resolve to and by their theme, which
+ * drawables may take attributes from. Fields hold a reference while attached to a window, and
+ * only resources held by one are shared; the photo is dropped when the last one detaches.
+ */
+final class ChipResources {
+  static final int BACKGROUND = 0;
+  static final int BACKGROUND_PRESSED = 1;
+  static final int DELETE = 2;
+  static final int INVALID_BACKGROUND = 3;
+  static final int ICON = 4;
+  static final int DRAWABLE_COUNT = 5;
+
+  private static final HashMap<Key, ChipResources> sShared = new HashMap<>();
+
+  private final Key mKey;
+  private final Drawable.ConstantState[] mStates = new Drawable.ConstantState[DRAWABLE_COUNT];
+  private final int mPhotoId;
+  // Guarded by this rather than sShared, so decoding it holds up no other style.
+  private Bitmap mPhoto;
+  private int mReferences;
+
+  private static final class Key {
+    private final int[] mIds;
+    // Compared by identity, a theme can be changed after it was created.
+    private final Resources.Theme mTheme;
+    private final int mHash;
+
+    Key(final int[] ids, final Resources.Theme theme) {
+      mIds = ids;
+      mTheme = theme;
+      mHash = 31 * Arrays.hashCode(ids) + System.identityHashCode(theme);
+    }
+
+    @Override public boolean equals(final Object o) {
+      return o instanceof Key && Arrays.equals(mIds, ((Key) o).mIds) && mTheme == ((Key) o).mTheme;
+    }
+
+    @Override public int hashCode() {
+      return mHash;
+    }
+  }
+
+  private ChipResources(final Key key, final Resources resources, final Resources.Theme theme,
+      final int[] drawableIds, final int photoId) {
+    mKey = key;
+    mPhotoId = photoId;
+    for (int i = 0; i < DRAWABLE_COUNT; i++) {
+      if (drawableIds[i] != 0) {
+        final Drawable drawable = ResourcesCompat.getDrawable(resources, drawableIds[i], theme);
+        mStates[i] = drawable != null ? drawable.getConstantState() : null;
+      }
+    }
+  }
+
+  /**
+   * @return the id of the drawable an attribute refers to, the default if it is not set, or 0 if
+   * it is not a resource, e.g. a plain color
+   */
+  static int getDrawableId(final TypedArray a, final int index, final int defaultId) {
+    final TypedValue value = a.peekValue(index);
+    return value == null ? defaultId : value.resourceId;
+  }
+
+  /**
+   * Get the resources of a style, loading them if no attached field holds them. Resources loaded
+   * here are only shared once {@link #acquire()}d.
+   *
+   * @param theme theme of the field, drawables are loaded with it
+   * @param drawableIds ids of the drawables, indexed by {@link #BACKGROUND} and the others, 0 for
+   * none
+   */
+  static ChipResources obtain(final Resources resources, final Resources.Theme theme,
+      final int[] drawableIds, final int photoId) {
+    final Configuration configuration = resources.getConfiguration();
+    final int[] ids = Arrays.copyOf(drawableIds, DRAWABLE_COUNT + 3);
+    // The same ids give other drawables in other densities and night modes.
+    ids[DRAWABLE_COUNT] = photoId;
+    ids[DRAWABLE_COUNT + 1] = resources.getDisplayMetrics().densityDpi;
+    ids[DRAWABLE_COUNT + 2] = configuration.uiMode;
+    final Key key = new Key(ids, theme);
+    synchronized (sShared) {
+      final ChipResources shared = sShared.get(key);
+      if (shared != null) {
+        return shared;
+      }
+    }
+    // A field that is never attached must not leave its resources behind in sShared.
+    return new ChipResources(key, resources, theme, drawableIds, photoId);
+  }
+
+  /**
+   * @return a new drawable sharing the state of a loaded one, or null if there is none or it
+   * cannot be shared
+   */
+  Drawable newDrawable(final int index, final Resources resources) {
+    final Drawable.ConstantState state = mStates[index];
+    return state != null ? state.newDrawable(resources) : null;
+  }
+
+  Bitmap getPhoto(final Resources resources) {
+    synchronized (this) {
+      if (mPhoto == null) {
+        mPhoto = BitmapFactory.decodeResource(resources, mPhotoId);
+      }
+      return mPhoto;
+    }
+  }
+
+  /**
+   * Drop the photo, e.g. when memory runs low. It is decoded again when a chip needs it.
+   */
+  void releasePhoto() {
+    synchronized (this) {
+      mPhoto = null;
+    }
+  }
+
+  void acquire() {
+    synchronized (sShared) {
+      if (mReferences++ == 0 && !sShared.containsKey(mKey)) {
+        sShared.put(mKey, this);
+      }
+    }
+  }
+
+  void release() {
+    synchronized (sShared) {
+      if (mReferences > 0 && --mReferences == 0) {
+        releasePhoto();
+        if (sShared.get(mKey) == this) {
+          sShared.remove(mKey);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.util.AttributeSet;
+import android.view.View;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows chips without letting them be edited, e.g. for the recipients of a message header or a
+ * list row. It is styled like {@link RecipientEditTextView}, sharing its chip background, but
+ * has no text, spans or bitmaps: the chips are laid out left to right in rows and drawn directly.
+ * With a maximum number of lines, chips that do not fit are replaced by a "+N" chip.
+ */
+public class ChipStripView extends View {
+  private final ChipPainter mPainter;
+  private int mMaxLines;
+  private final ArrayList<String> mTitles = new ArrayList<>();
+  // Width of each title, measured once when set.
+  private float[] mTitleWidths = new float[0];
+  // Layout for mLaidOutWidth: where each shown chip goes, and the text it shows.
+  private int mLaidOutWidth = -1;
+  private int mShownCount;
+  private int mLineCount;
+  private int[] mLefts = new int[0];
+  private int[] mLines = new int[0];
+  private int[] mWidths = new int[0];
+  private CharSequence[] mTexts = new CharSequence[0];
+  // The "+N" chip, when some chips do not fit.
+  private String mMoreText;
+  private int mMoreLeft;
+  private int mMoreWidth;
+
+  public ChipStripView(final Context context) {
+    this(context, null);
+  }
+
+  public ChipStripView(final Context context, final AttributeSet attrs) {
+    super(context, attrs);
+    mPainter = new ChipPainter(context, attrs);
+    mMaxLines = mPainter.getMaxLines();
+  }
+
+  /**
+   * Show the chips of a list, replacing the ones shown.
+   */
+  public void setChipsList(final List<String> chipsList) {
+    mTitles.clear();
+    mTitles.addAll(chipsList);
+    mTitleWidths = new float[mTitles.size()];
+    for (int i = 0; i < mTitleWidths.length; i++) {
+      mTitleWidths[i] = mPainter.measureText(mTitles.get(i));
+    }
+    mLaidOutWidth = -1;
+    requestLayout();
+    invalidate();
+  }
+
+  public List<String> getChipsList() {
+    return new ArrayList<>(mTitles);
+  }
+
+  /**
+   * Limit the rows of chips; the chips that do not fit are counted in a "+N" chip at the end.
+   */
+  public void setMaxLines(final int maxLines) {
+    if (mMaxLines != maxLines) {
+      mMaxLines = maxLines;
+      mLaidOutWidth = -1;
+      requestLayout();
+      invalidate();
+    }
+  }
+
+  public int getMaxLines() {
+    return mMaxLines;
+  }
+
+  /**
+   * @return how many chips are shown, the others being counted in the "+N" chip
+   */
+  public int getShownCount() {
+    return mShownCount;
+  }
+
+  @Override protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    mPainter.acquire();
+  }
+
+  @Override protected void onDetachedFromWindow() {
+    mPainter.release();
+    super.onDetachedFromWindow();
+  }
+
+  @Override protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
+    final int padding = getPaddingLeft() + getPaddingRight();
+    int width;
+    if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.EXACTLY) {
+      width = MeasureSpec.getSize(widthMeasureSpec);
+    } else {
+      // As wide as all the chips in one row, if allowed.
+      float oneRow = 0;
+      for (int i = 0; i < mTitleWidths.length; i++) {
+        oneRow += (i > 0 ? mPainter.getGap() : 0) + mPainter.getChipWidth(mTitleWidths[i]);
+      }
+      width = (int) Math.ceil(oneRow) + padding;
+      if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.AT_MOST) {
+        width = Math.min(width, MeasureSpec.getSize(widthMeasureSpec));
+      }
+    }
+    width = Math.max(width, getSuggestedMinimumWidth());
+    layoutChips(width - padding);
+    final int rows = Math.max(mLineCount, 1);
+    final int height = getPaddingTop() + getPaddingBottom() + rows * mPainter.getChipHeight()
+        + (rows - 1) * mPainter.getLineSpacing();
+    setMeasuredDimension(width,
+        resolveSize(Math.max(height, getSuggestedMinimumHeight()), heightMeasureSpec));
+  }
+
+  @Override protected void onLayout(final boolean changed, final int left, final int top,
+      final int right, final int bottom) {
+    layoutChips(right - left - getPaddingLeft() - getPaddingRight());
+  }
+
+  @Override protected void onDraw(final Canvas canvas) {
+    final int left = getPaddingLeft();
+    final int top = getPaddingTop();
+    for (int i = 0; i < mShownCount; i++) {
+      mPainter.draw(canvas, mTexts[i], left + mLefts[i], top + getLineTop(mLines[i]), mWidths[i]);
+    }
+    if (mMoreText != null) {
+      mPainter.draw(canvas, mMoreText, left + mMoreLeft, top + getLineTop(mLineCount - 1),
+          mMoreWidth);
+    }
+  }
+
+  /**
+   * Place the chips in rows of a width, unless they already are.
+   */
+  private void layoutChips(final int width) {
+    if (width == mLaidOutWidth) {
+      return;
+    }
+    mLaidOutWidth = width;
+    final int count = mTitles.size();
+    if (mLefts.length < count) {
+      mLefts = new int[count];
+      mLines = new int[count];
+      mWidths = new int[count];
+      mTexts = new CharSequence[count];
+    }
+    final int maxTextWidth = mPainter.getMaxTextWidth(width);
+    final int gap = mPainter.getGap();
+    int x = 0;
+    int line = 0;
+    int shown = 0;
+    while (shown < count) {
+      CharSequence text = mTitles.get(shown);
+      float textWidth = mTitleWidths[shown];
+      if (textWidth > maxTextWidth) {
+        text = mPainter.ellipsize(text, maxTextWidth);
+        textWidth = mPainter.measureText(text);
+      }
+      final int chipWidth = mPainter.getChipWidth(textWidth);
+      if (x > 0 && x + chipWidth > width) {
+        if (line + 1 >= Math.max(mMaxLines, 1)) {
+          break;
+        }
+        line++;
+        x = 0;
+      }
+      mLefts[shown] = x;
+      mLines[shown] = line;
+      mWidths[shown] = chipWidth;
+      mTexts[shown] = text;
+      x += chipWidth + gap;
+      shown++;
+    }
+    mLineCount = count == 0 ? 0 : line + 1;
+    mMoreText = null;
+    if (shown < count) {
+      // Make room for the "+N" chip at the end of the last row.
+      while (true) {
+        mMoreText = "+" + (count - shown);
+        mMoreWidth = mPainter.getChipWidth(mPainter.measureText(mMoreText));
+        final boolean afterChip = shown > 0 && mLines[shown - 1] == line;
+        mMoreLeft = afterChip ? mLefts[shown - 1] + mWidths[shown - 1] + gap : 0;
+        if (!afterChip || mMoreLeft + mMoreWidth <= width) {
+          break;
+        }
+        shown--;
+      }
+    }
+    mShownCount = shown;
+  }
+
+  private int getLineTop(final int line) {
+    return line * (mPainter.getChipHeight() + mPainter.getLineSpacing());
+  }
+}
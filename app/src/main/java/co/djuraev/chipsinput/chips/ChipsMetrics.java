@@ -0,0 +1,36 @@
+package co.djuraev.chipsinput.chips;
+
+/**
+ * Receives how long the operations of the chips widget take, for profiling in production. Set one
+ * with {@link RecipientEditTextView#setMetrics} or on a suggestion adapter; without one nothing is
+ * timed. Reports come on the thread that ran the operation, mostly the UI thread, so they should
+ * be cheap: {@link ChipsMetricsRecorder} only counts them into histograms.
+ */
+public interface ChipsMetrics {
+
+  /**
+   * The timed operations, each with what its size counts.
+   */
+  enum Operation {
+    /** Drawing the bitmap of a chip; size is the bytes of the bitmap. */
+    CONSTRUCT_CHIP,
+    /** Turning the text set on the field into chips; size is the chips processed. */
+    HANDLE_PENDING_CHIPS,
+    /** Turning pasted text into chips; size is the chips created. */
+    HANDLE_PASTE,
+    /** Deciding whether to filter for the typed text; size is the length of the whole text. */
+    PERFORM_FILTERING,
+    /** Collecting the chips of the field in text order; size is the chips collected. */
+    SORT_RECIPIENTS,
+    /** Reacting to a change of the text; size is the chars inserted. */
+    TEXT_CHANGE,
+    /** Finding the suggestions for a query, off the UI thread; size is the candidates scanned. */
+    FILTER_SUGGESTIONS
+  }
+
+  /**
+   * @param durationNanos how long the operation took
+   * @param size how much it processed, see {@link Operation}
+   */
+  void onOperation(Operation operation, long durationNanos, long size);
+}
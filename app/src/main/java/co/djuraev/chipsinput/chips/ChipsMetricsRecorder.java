@@ -0,0 +1,45 @@
+package co.djuraev.chipsinput.chips;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics keeping a {@link LatencyHistogram} and the total size for each operation, to be read
+ * now and then, e.g. when the screen closes, and sent along with other app metrics.
+ */
+public class ChipsMetricsRecorder implements ChipsMetrics {
+  private final EnumMap<Operation, LatencyHistogram> mHistograms = new EnumMap<>(Operation.class);
+  private final EnumMap<Operation, AtomicLong> mSizes = new EnumMap<>(Operation.class);
+
+  public ChipsMetricsRecorder() {
+    // Filled up front, so reports only read the maps.
+    for (final Operation operation : Operation.values()) {
+      mHistograms.put(operation, new LatencyHistogram());
+      mSizes.put(operation, new AtomicLong());
+    }
+  }
+
+  @Override public void onOperation(final Operation operation, final long durationNanos,
+      final long size) {
+    mHistograms.get(operation).record(durationNanos);
+    mSizes.get(operation).addAndGet(size);
+  }
+
+  public LatencyHistogram.Snapshot getDurations(final Operation operation) {
+    return mHistograms.get(operation).snapshot();
+  }
+
+  /**
+   * @return the sum of the sizes reported for an operation, see {@link Operation}
+   */
+  public long getTotalSize(final Operation operation) {
+    return mSizes.get(operation).get();
+  }
+
+  public void reset() {
+    for (final Operation operation : Operation.values()) {
+      mHistograms.get(operation).reset();
+      mSizes.get(operation).set(0);
+    }
+  }
+}
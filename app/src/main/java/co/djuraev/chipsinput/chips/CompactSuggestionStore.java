@@ -0,0 +1,351 @@
+package co.djuraev.chipsinput.chips;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable column store of suggestions. Ids live in a {@code long[]}, titles and normalized keys
+ * are concatenated into one {@code char[]} each and addressed through {@code int[]} offset tables,
+ * so a large directory costs a handful of primitive arrays the garbage collector does not have to
+ * trace, instead of a ChipItem, a String and a char[] per entry. ChipItems are only created for the
+ * rows that are actually handed out.
+ */
+public class CompactSuggestionStore {
+  private final int mSize;
+  private final long[] mIds;
+  private final char[] mTitles;
+  private final int[] mTitleOffsets;
+  private final char[] mKeys;
+  private final int[] mKeyOffsets;
+  // Digits of each title, to match phone numbers however they are written.
+  private final char[] mDigits;
+  private final int[] mDigitOffsets;
+  // Start of every suffix of the digits of each row, sorted, so the rows containing some digits
+  // are found by binary search. Built on the first lookup; racing threads build equal arrays.
+  private volatile int[] mDigitSuffixes;
+
+  private CompactSuggestionStore(final Builder builder) {
+    mSize = builder.mSize;
+    mIds = Arrays.copyOf(builder.mIds, mSize);
+    mTitles = Arrays.copyOf(builder.mTitles, builder.mTitleOffsets[mSize]);
+    mTitleOffsets = Arrays.copyOf(builder.mTitleOffsets, mSize + 1);
+    mKeys = Arrays.copyOf(builder.mKeys, builder.mKeyOffsets[mSize]);
+    mKeyOffsets = Arrays.copyOf(builder.mKeyOffsets, mSize + 1);
+    mDigits = Arrays.copyOf(builder.mDigits, builder.mDigitOffsets[mSize]);
+    mDigitOffsets = Arrays.copyOf(builder.mDigitOffsets, mSize + 1);
+  }
+
+  public static CompactSuggestionStore from(final List<ChipItem> items) {
+    final Builder builder = new Builder(items.size());
+    for (final ChipItem item : items) {
+      builder.add(item.getId(), item.getTitle());
+    }
+    return builder.build();
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  public long getId(final int row) {
+    return mIds[row];
+  }
+
+  public String getTitle(final int row) {
+    return new String(mTitles, mTitleOffsets[row], getTitleLength(row));
+  }
+
+  /**
+   * Get the title arena, to copy or draw a title without creating a String; the title of a row
+   * starts at {@link #getTitleStart} and is {@link #getTitleLength} chars long.
+   */
+  public char[] getTitleChars() {
+    return mTitles;
+  }
+
+  public int getTitleStart(final int row) {
+    return mTitleOffsets[row];
+  }
+
+  public int getTitleLength(final int row) {
+    return mTitleOffsets[row + 1] - mTitleOffsets[row];
+  }
+
+  char[] getKeyChars() {
+    return mKeys;
+  }
+
+  int getKeyStart(final int row) {
+    return mKeyOffsets[row];
+  }
+
+  int getKeyEnd(final int row) {
+    return mKeyOffsets[row + 1];
+  }
+
+  public String getKey(final int row) {
+    return new String(mKeys, mKeyOffsets[row], mKeyOffsets[row + 1] - mKeyOffsets[row]);
+  }
+
+  /**
+   * Create the entry of a row. Every call returns a new ChipItem.
+   */
+  public ChipItem createItem(final int row) {
+    return new ChipItem(mIds[row], getTitle(row));
+  }
+
+  /**
+   * Get the normalized keys as a list whose Strings are created on access.
+   */
+  public List<String> keys() {
+    return new AbstractList<String>() {
+      @Override public String get(final int row) {
+        return getKey(row);
+      }
+
+      @Override public int size() {
+        return mSize;
+      }
+    };
+  }
+
+  /**
+   * Find a normalized query in the normalized key of a row, without allocating.
+   *
+   * @return the index of the first occurrence in the key, or -1
+   */
+  public int indexOfKey(final int row, final String query) {
+    return indexOf(mKeys, mKeyOffsets[row], mKeyOffsets[row + 1], query);
+  }
+
+  public boolean keyContains(final int row, final String query) {
+    return indexOfKey(row, query) >= 0;
+  }
+
+  /**
+   * Tell whether the digits of the title of a row contain some digits, e.g. the digits typed of a
+   * phone number.
+   */
+  public boolean digitsContain(final int row, final String digits) {
+    final int start = mDigitOffsets[row];
+    final int end = mDigitOffsets[row + 1];
+    return end > start && indexOf(mDigits, start, end, digits) >= 0;
+  }
+
+  /**
+   * Find the rows whose title digits contain some digits, e.g. the digits typed of a phone number.
+   * The first call sorts the suffixes of the digits of all rows; a lookup then costs a binary
+   * search plus a step per occurrence, instead of a scan of every row.
+   *
+   * @return the matching rows, in order
+   */
+  public int[] findRowsWithDigits(final String digits) {
+    final int[] suffixes = getDigitSuffixes();
+    // First suffix not sorting before the digits.
+    int low = 0;
+    int high = suffixes.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (compareSuffix(suffixes[middle], digits) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    int[] rows = new int[8];
+    int count = 0;
+    for (int i = low; i < suffixes.length && suffixStartsWith(suffixes[i], digits); i++) {
+      if (count == rows.length) {
+        rows = Arrays.copyOf(rows, count * 2);
+      }
+      rows[count++] = rowOfDigit(suffixes[i]);
+    }
+    // A row with the digits more than once is reported once.
+    Arrays.sort(rows, 0, count);
+    int unique = 0;
+    for (int i = 0; i < count; i++) {
+      if (unique == 0 || rows[unique - 1] != rows[i]) {
+        rows[unique++] = rows[i];
+      }
+    }
+    return Arrays.copyOf(rows, unique);
+  }
+
+  private int[] getDigitSuffixes() {
+    int[] suffixes = mDigitSuffixes;
+    if (suffixes == null) {
+      final int count = mDigitOffsets[mSize];
+      final int[] starts = new int[count];
+      final int[] ends = new int[count];
+      for (int row = 0; row < mSize; row++) {
+        for (int i = mDigitOffsets[row]; i < mDigitOffsets[row + 1]; i++) {
+          starts[i] = i;
+          ends[i] = mDigitOffsets[row + 1];
+        }
+      }
+      suffixes = SuggestionIndexWriter.sortTerms(mDigits, starts, ends, count);
+      mDigitSuffixes = suffixes;
+    }
+    return suffixes;
+  }
+
+  /**
+   * Get the row whose digits hold the digit at an index of the digit arena.
+   */
+  private int rowOfDigit(final int index) {
+    // Last row starting at or before the index; rows without digits start where the next does.
+    int low = 0;
+    int high = mSize - 1;
+    while (low < high) {
+      final int middle = (low + high + 1) >>> 1;
+      if (mDigitOffsets[middle] <= index) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  private int compareSuffix(final int start, final String digits) {
+    final int end = mDigitOffsets[rowOfDigit(start) + 1];
+    final int length = Math.min(end - start, digits.length());
+    for (int i = 0; i < length; i++) {
+      final char c = mDigits[start + i];
+      if (c != digits.charAt(i)) {
+        return c - digits.charAt(i);
+      }
+    }
+    return (end - start) - digits.length();
+  }
+
+  private boolean suffixStartsWith(final int start, final String digits) {
+    final int end = mDigitOffsets[rowOfDigit(start) + 1];
+    if (end - start < digits.length()) {
+      return false;
+    }
+    for (int i = 0; i < digits.length(); i++) {
+      if (mDigits[start + i] != digits.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(final char[] arena, final int start, final int end,
+      final String query) {
+    final int length = query.length();
+    if (length == 0) {
+      return 0;
+    }
+    final char first = query.charAt(0);
+    for (int i = start, last = end - length; i <= last; i++) {
+      if (arena[i] != first) {
+        continue;
+      }
+      int j = 1;
+      while (j < length && arena[i + j] == query.charAt(j)) {
+        j++;
+      }
+      if (j == length) {
+        return i - start;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Map an index into the normalized key of a row to the same char of its title, e.g. to
+   * highlight a match found by {@link #indexOfKey}.
+   *
+   * @return the index in the title, or -1 when lowercasing changed the length of the title
+   */
+  public int keyIndexToTitleIndex(final int row, final int keyIndex) {
+    final int start = mTitleOffsets[row];
+    int end = mTitleOffsets[row + 1];
+    // Undo the trimming of the key.
+    int leading = start;
+    while (leading < end && mTitles[leading] <= ' ') {
+      leading++;
+    }
+    while (end > leading && mTitles[end - 1] <= ' ') {
+      end--;
+    }
+    if (end - leading != mKeyOffsets[row + 1] - mKeyOffsets[row]) {
+      return -1;
+    }
+    return leading - start + keyIndex;
+  }
+
+  public static class Builder {
+    private int mSize;
+    private long[] mIds;
+    private char[] mTitles;
+    private int[] mTitleOffsets;
+    private char[] mKeys;
+    private int[] mKeyOffsets;
+    private char[] mDigits;
+    private int[] mDigitOffsets;
+
+    public Builder() {
+      this(16);
+    }
+
+    public Builder(final int expectedSize) {
+      final int capacity = Math.max(1, expectedSize);
+      mIds = new long[capacity];
+      mTitleOffsets = new int[capacity + 1];
+      mKeyOffsets = new int[capacity + 1];
+      mTitles = new char[capacity * 16];
+      mKeys = new char[capacity * 16];
+      mDigitOffsets = new int[capacity + 1];
+      mDigits = new char[capacity];
+    }
+
+    public Builder add(final long id, final String title) {
+      if (mSize == mIds.length) {
+        mIds = Arrays.copyOf(mIds, mSize * 2);
+        mTitleOffsets = Arrays.copyOf(mTitleOffsets, mSize * 2 + 1);
+        mKeyOffsets = Arrays.copyOf(mKeyOffsets, mSize * 2 + 1);
+        mDigitOffsets = Arrays.copyOf(mDigitOffsets, mSize * 2 + 1);
+      }
+      final String text = title == null ? "" : title;
+      mIds[mSize] = id;
+      mTitles = append(mTitles, mTitleOffsets, mSize, text);
+      mKeys = append(mKeys, mKeyOffsets, mSize, Utils.normalizeSuggestionKey(text));
+      appendDigits(text);
+      mSize++;
+      return this;
+    }
+
+    private static char[] append(char[] arena, final int[] offsets, final int row,
+        final String text) {
+      final int start = offsets[row];
+      final int end = start + text.length();
+      if (end > arena.length) {
+        arena = Arrays.copyOf(arena, Math.max(end, arena.length * 2));
+      }
+      text.getChars(0, text.length(), arena, start);
+      offsets[row + 1] = end;
+      return arena;
+    }
+
+    private void appendDigits(final String text) {
+      int end = mDigitOffsets[mSize];
+      if (end + text.length() > mDigits.length) {
+        mDigits = Arrays.copyOf(mDigits, Math.max(end + text.length(), mDigits.length * 2));
+      }
+      end += PhoneNumbers.getDigits(text, mDigits, end);
+      mDigitOffsets[mSize + 1] = end;
+    }
+
+    public int size() {
+      return mSize;
+    }
+
+    public CompactSuggestionStore build() {
+      return new CompactSuggestionStore(this);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package co.djuraev.chipsinput.chips;
+
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+/**
+ * Collects the work a view defers, as flags, and has it done at most once per frame. The work
+ * runs from an animation callback of the view's Choreographer, which comes before the frame is
+ * laid out and drawn, so changes it makes are laid out with the frame rather than in a relayout
+ * of their own; before Jelly Bean it is posted with the frame delay instead. Only used on the
+ * main thread.
+ */
+final class FrameScheduler {
+  interface Worker {
+    /**
+     * Do the work of some flags, in the order the worker defines.
+     */
+    void doWork(int work);
+  }
+
+  private final View mView;
+  private final Worker mWorker;
+  private int mPending;
+  private boolean mPosted;
+  private final Runnable mFrame = new Runnable() {
+    @Override public void run() {
+      mPosted = false;
+      flushNow();
+    }
+  };
+
+  FrameScheduler(final View view, final Worker worker) {
+    mView = view;
+    mWorker = worker;
+  }
+
+  /**
+   * Have the work of some flags done in the next frame, along with any already scheduled.
+   */
+  void schedule(final int work) {
+    mPending |= work;
+    if (!mPosted) {
+      mPosted = true;
+      ViewCompat.postOnAnimation(mView, mFrame);
+    }
+  }
+
+  boolean isScheduled(final int work) {
+    return (mPending & work) != 0;
+  }
+
+  /**
+   * Do the scheduled work now rather than in the next frame, including work it schedules.
+   */
+  void flushNow() {
+    if (mPosted) {
+      mView.removeCallbacks(mFrame);
+      mPosted = false;
+    }
+    while (mPending != 0) {
+      final int work = mPending;
+      mPending = 0;
+      mWorker.doWork(work);
+    }
+    // Work scheduled while flushing was done along with it.
+    if (mPosted) {
+      mView.removeCallbacks(mFrame);
+      mPosted = false;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CursorAdapter;
+import android.widget.Filter;
+import android.widget.TextView;
+import co.djuraev.chipsinput.R;
+
+/**
+ * Adapter showing the matches of an {@link FtsSuggestionProvider}. Filtering only opens a cursor
+ * over at most one dropdown worth of rows, and rows are read from it as they are bound.
+ */
+public class FtsSuggestionAdapter extends CursorAdapter {
+  private final FtsSuggestionProvider mProvider;
+  private final int mLimit;
+  private final LayoutInflater mInflater;
+
+  public FtsSuggestionAdapter(final Context context, final FtsSuggestionProvider provider) {
+    this(context, provider, SuggestionSourceAdapter.DEFAULT_PAGE_SIZE);
+  }
+
+  /**
+   * @param limit maximum number of suggestions shown for a query
+   */
+  public FtsSuggestionAdapter(final Context context, final FtsSuggestionProvider provider,
+      final int limit) {
+    super(context, null, 0);
+    mProvider = provider;
+    mLimit = limit;
+    mInflater = LayoutInflater.from(context);
+  }
+
+  @Override public Cursor runQueryOnBackgroundThread(final CharSequence constraint) {
+    return mProvider.query(constraint, mLimit);
+  }
+
+  /**
+   * Get the entry of a row. RecipientEditTextView expects ChipItems from its adapter.
+   */
+  @Override public ChipItem getItem(final int position) {
+    final Cursor cursor = (Cursor) super.getItem(position);
+    return cursor == null ? null : new ChipItem(cursor.getLong(0), cursor.getString(1));
+  }
+
+  @Override public CharSequence convertToString(final Cursor cursor) {
+    return cursor == null ? "" : cursor.getString(1);
+  }
+
+  /**
+   * CursorAdapter's own filter casts completions to Cursor, which the overridden getItem() no
+   * longer returns.
+   */
+  @Override public Filter getFilter() {
+    return new CursorFilter();
+  }
+
+  @Override public View newView(final Context context, final Cursor cursor,
+      final ViewGroup parent) {
+    final View view = mInflater.inflate(R.layout.item_chip_drop_down, parent, false);
+    view.setTag(new RowHolder((TextView) view.findViewById(R.id.title)));
+    return view;
+  }
+
+  @Override public void bindView(final View view, final Context context, final Cursor cursor) {
+    final RowHolder holder = (RowHolder) view.getTag();
+    // The TextView keeps referring to the chars, so each row has a buffer of its own.
+    cursor.copyStringToBuffer(1, holder.mBuffer);
+    holder.mTitle.setText(holder.mBuffer.data, 0, holder.mBuffer.sizeCopied);
+  }
+
+  private final class CursorFilter extends Filter {
+
+    @Override protected FilterResults performFiltering(final CharSequence constraint) {
+      final FilterResults results = new FilterResults();
+      final Cursor cursor = runQueryOnBackgroundThread(constraint);
+      if (cursor != null) {
+        results.values = cursor;
+        results.count = cursor.getCount();
+      }
+      return results;
+    }
+
+    @Override protected void publishResults(final CharSequence constraint,
+        final FilterResults results) {
+      final Cursor cursor = (Cursor) results.values;
+      if (cursor != null && cursor != getCursor()) {
+        // Closes the previous cursor.
+        changeCursor(cursor);
+      }
+    }
+
+    @Override public CharSequence convertResultToString(final Object resultValue) {
+      return resultValue instanceof ChipItem ? ((ChipItem) resultValue).getTitle() : "";
+    }
+  }
+
+  private static final class RowHolder {
+    final TextView mTitle;
+    final CharArrayBuffer mBuffer = new CharArrayBuffer(64);
+
+    RowHolder(final TextView title) {
+      mTitle = title;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package co.djuraev.chipsinput.chips;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+/**
+ * Looks up suggestions in a full text index of an existing contacts table. The index is an FTS4
+ * virtual table whose docids are the contact ids; triggers on the contacts table keep it up to date
+ * as contacts are inserted, updated and deleted, so it only has to be filled once, by
+ * {@link #install()}.
+ *
+ * <p>Where SQLite supports it (Jelly Bean and later) the index is an external content table: it
+ * holds only the terms and reads titles from the contacts table, so they are not stored twice.
+ * The contact id must then be the rowid of the contacts table, i.e. an INTEGER PRIMARY KEY.
+ *
+ * <p>FTS5 is not available on the SQLite versions shipped with older Android releases, so FTS4 is
+ * used. Its default tokenizer only folds the case of ASCII letters.
+ */
+public class FtsSuggestionProvider {
+  public static final String COLUMN_ID = "_id";
+  public static final String COLUMN_TITLE = "title";
+
+  private final SQLiteDatabase mDatabase;
+  private final String mTable;
+  private final String mIdColumn;
+  private final String mTitleColumn;
+  private final String mIndex;
+
+  /**
+   * @param database the database holding the contacts
+   * @param table the contacts table
+   * @param idColumn integer column identifying a contact, the rowid alias
+   * @param titleColumn column holding the text shown and matched
+   */
+  public FtsSuggestionProvider(final SQLiteDatabase database, final String table,
+      final String idColumn, final String titleColumn) {
+    mDatabase = database;
+    mTable = table;
+    mIdColumn = idColumn;
+    mTitleColumn = titleColumn;
+    mIndex = table + "_suggestions";
+  }
+
+  /**
+   * Create the index and its triggers unless they exist yet, and index the contacts already in the
+   * table. Call it once the contacts table exists, e.g. from SQLiteOpenHelper.onOpen().
+   */
+  public void install() {
+    if (DatabaseUtils.queryNumEntries(mDatabase, "sqlite_master", "type = 'table' AND name = ?",
+        new String[] { mIndex }) > 0) {
+      return;
+    }
+    // External content tables need SQLite 3.7.9.
+    final boolean external = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    final String index = quote(mIndex);
+    final String table = quote(mTable);
+    final String id = quote(mIdColumn);
+    final String title = quote(mTitleColumn);
+    final String insert = "INSERT INTO " + index + "(docid, " + title + ") VALUES (new." + id
+        + ", new." + title + ");";
+    final String delete = "DELETE FROM " + index + " WHERE docid = old." + id + ";";
+    mDatabase.beginTransaction();
+    try {
+      if (external) {
+        mDatabase.execSQL("CREATE VIRTUAL TABLE " + index + " USING fts4(content=" + table + ", "
+            + title + ")");
+        mDatabase.execSQL("INSERT INTO " + index + "(" + index + ") VALUES ('rebuild')");
+      } else {
+        mDatabase.execSQL("CREATE VIRTUAL TABLE " + index + " USING fts4(" + title + ")");
+        mDatabase.execSQL("INSERT INTO " + index + "(docid, " + title + ") SELECT " + id + ", "
+            + title + " FROM " + table);
+      }
+      // An external content index reads the terms to remove from the contacts table, so they are
+      // removed before the row changes.
+      mDatabase.execSQL("CREATE TRIGGER " + quote(mIndex + "_insert") + " AFTER INSERT ON "
+          + table + " BEGIN " + insert + " END");
+      mDatabase.execSQL("CREATE TRIGGER " + quote(mIndex + "_delete") + " BEFORE DELETE ON "
+          + table + " BEGIN " + delete + " END");
+      mDatabase.execSQL("CREATE TRIGGER " + quote(mIndex + "_update_before") + " BEFORE UPDATE OF "
+          + id + ", " + title + " ON " + table + " BEGIN " + delete + " END");
+      mDatabase.execSQL("CREATE TRIGGER " + quote(mIndex + "_update") + " AFTER UPDATE OF " + id
+          + ", " + title + " ON " + table + " BEGIN " + insert + " END");
+      mDatabase.setTransactionSuccessful();
+    } finally {
+      mDatabase.endTransaction();
+    }
+  }
+
+  /**
+   * Drop the index and its triggers, e.g. before the contacts table is dropped.
+   */
+  public void uninstall() {
+    mDatabase.execSQL("DROP TRIGGER IF EXISTS " + quote(mIndex + "_insert"));
+    mDatabase.execSQL("DROP TRIGGER IF EXISTS " + quote(mIndex + "_delete"));
+    mDatabase.execSQL("DROP TRIGGER IF EXISTS " + quote(mIndex + "_update_before"));
+    mDatabase.execSQL("DROP TRIGGER IF EXISTS " + quote(mIndex + "_update"));
+    mDatabase.execSQL("DROP TABLE IF EXISTS " + quote(mIndex));
+  }
+
+  /**
+   * Find the contacts having a word that starts with each word of the query. Only {@code limit}
+   * rows are read, with the columns {@link #COLUMN_ID} and {@link #COLUMN_TITLE}.
+   */
+  public Cursor query(final CharSequence constraint, final int limit) {
+    final String match = toMatchExpression(constraint);
+    final String select = "SELECT docid AS " + COLUMN_ID + ", " + quote(mTitleColumn) + " AS "
+        + COLUMN_TITLE + " FROM " + quote(mIndex);
+    if (match.isEmpty()) {
+      return mDatabase.rawQuery(select + " LIMIT " + limit, null);
+    }
+    return mDatabase.rawQuery(select + " WHERE " + quote(mIndex) + " MATCH ? LIMIT " + limit,
+        new String[] { match });
+  }
+
+  /**
+   * Turn typed text into a prefix query ANDing its words, e.g. "John Sm" into "john* sm*". Only
+   * letters and digits are kept, so the text can never form query operators or syntax errors.
+   */
+  static String toMatchExpression(final CharSequence constraint) {
+    final String text = Utils.normalizeSuggestionKey(constraint);
+    final StringBuilder match = new StringBuilder(text.length() + 8);
+    boolean inWord = false;
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        if (!inWord && match.length() > 0) {
+          match.append(' ');
+        }
+        match.append(c);
+        inWord = true;
+      } else if (inWord) {
+        match.append('*');
+        inWord = false;
+      }
+    }
+    if (inWord) {
+      match.append('*');
+    }
+    return match.toString();
+  }
+
+  private static String quote(final String identifier) {
+    return '"' + identifier.replace("\"", "\"\"") + '"';
+  }
+}
@@ -0,0 +1,220 @@
+package co.djuraev.chipsinput.chips;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typo tolerant lookup over suggestion titles. Every word of every title is stored in a BK-tree, so
+ * the words within a small Levenshtein distance of a query word are found by visiting only the
+ * branches the triangle inequality allows, instead of comparing the query against every entry.
+ */
+public class FuzzySuggestionIndex {
+  private Node mRoot;
+
+  /**
+   * @param keys normalized title of each row, see {@link Utils#normalizeSuggestionKey}
+   */
+  public FuzzySuggestionIndex(final List<String> keys) {
+    for (int row = 0; row < keys.size(); row++) {
+      add(keys.get(row), row);
+    }
+  }
+
+  /**
+   * Index the words of one more row.
+   *
+   * @param key normalized title of the row
+   */
+  public void add(final String key, final int row) {
+    for (final String word : splitWords(key)) {
+      addWord(word, row);
+    }
+  }
+
+  /**
+   * Get the edit distance tolerated for a query word of the given length. Very short words are
+   * matched exactly only, otherwise almost everything would match.
+   */
+  public static int maxDistanceFor(final int wordLength) {
+    if (wordLength < 3) {
+      return 0;
+    }
+    return wordLength < 4 ? 1 : 2;
+  }
+
+  /**
+   * Find the rows whose titles contain, for each word of the query, a word within
+   * {@link #maxDistanceFor} edits of it.
+   *
+   * @param query normalized query
+   * @return matching rows ordered by total distance, then by row
+   */
+  public int[] search(final String query) {
+    final String[] words = splitWords(query);
+    if (mRoot == null || words.length == 0) {
+      return new int[0];
+    }
+    Map<Integer, Integer> matched = null;
+    for (final String word : words) {
+      final Map<Integer, Integer> wordMatches = searchWord(word);
+      if (matched == null) {
+        matched = wordMatches;
+      } else {
+        // Every query word must match, distances add up.
+        final Map<Integer, Integer> both = new HashMap<>();
+        for (final Map.Entry<Integer, Integer> entry : matched.entrySet()) {
+          final Integer distance = wordMatches.get(entry.getKey());
+          if (distance != null) {
+            both.put(entry.getKey(), entry.getValue() + distance);
+          }
+        }
+        matched = both;
+      }
+      if (matched.isEmpty()) {
+        return new int[0];
+      }
+    }
+
+    // Pack (distance, row) into a long so a plain sort gives the ranking.
+    final long[] ranked = new long[matched.size()];
+    int i = 0;
+    for (final Map.Entry<Integer, Integer> entry : matched.entrySet()) {
+      ranked[i++] = ((long) entry.getValue() << 32) | entry.getKey();
+    }
+    Arrays.sort(ranked);
+    final int[] rows = new int[ranked.length];
+    for (i = 0; i < ranked.length; i++) {
+      rows[i] = (int) ranked[i];
+    }
+    return rows;
+  }
+
+  private Map<Integer, Integer> searchWord(final String word) {
+    final Map<Integer, Integer> result = new HashMap<>();
+    final int maxDistance = maxDistanceFor(word.length());
+    final int[] scratch = new int[(word.length() + 1) * 2];
+    final ArrayDeque<Node> pending = new ArrayDeque<>();
+    pending.push(mRoot);
+    while (!pending.isEmpty()) {
+      final Node node = pending.pop();
+      final int distance = distance(word, node.mWord, scratch);
+      if (distance <= maxDistance) {
+        for (int i = 0; i < node.mRowCount; i++) {
+          final Integer row = node.mRows[i];
+          final Integer previous = result.get(row);
+          if (previous == null || previous > distance) {
+            result.put(row, distance);
+          }
+        }
+      }
+      // Only children at a distance within [distance - max, distance + max] of this node can
+      // be within max of the query.
+      final int from = Math.max(1, distance - maxDistance);
+      final int to = Math.min(node.mChildren.length - 1, distance + maxDistance);
+      for (int d = from; d <= to; d++) {
+        if (node.mChildren[d] != null) {
+          pending.push(node.mChildren[d]);
+        }
+      }
+    }
+    return result;
+  }
+
+  private void addWord(final String word, final int row) {
+    if (mRoot == null) {
+      mRoot = new Node(word);
+      mRoot.addRow(row);
+      return;
+    }
+    Node node = mRoot;
+    final int[] scratch = new int[(word.length() + 1) * 2];
+    while (true) {
+      final int distance = distance(word, node.mWord, scratch);
+      if (distance == 0) {
+        node.addRow(row);
+        return;
+      }
+      final Node child = distance < node.mChildren.length ? node.mChildren[distance] : null;
+      if (child == null) {
+        node.child(distance, new Node(word)).addRow(row);
+        return;
+      }
+      node = child;
+    }
+  }
+
+  private static String[] splitWords(final String key) {
+    final List<String> words = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= key.length(); i++) {
+      final boolean wordChar = i < key.length() && Character.isLetterOrDigit(key.charAt(i));
+      if (wordChar && start == -1) {
+        start = i;
+      } else if (!wordChar && start != -1) {
+        words.add(key.substring(start, i));
+        start = -1;
+      }
+    }
+    return words.toArray(new String[words.size()]);
+  }
+
+  /**
+   * Levenshtein distance using two rows of {@code scratch}, which must hold at least
+   * {@code (a.length() + 1) * 2} ints.
+   */
+  static int distance(final String a, final String b, final int[] scratch) {
+    final int width = a.length() + 1;
+    int previous = 0;
+    int current = width;
+    for (int i = 0; i < width; i++) {
+      scratch[i] = i;
+    }
+    for (int j = 1; j <= b.length(); j++) {
+      final char bc = b.charAt(j - 1);
+      scratch[current] = j;
+      for (int i = 1; i < width; i++) {
+        final int cost = a.charAt(i - 1) == bc ? 0 : 1;
+        scratch[current + i] = Math.min(Math.min(scratch[current + i - 1] + 1,
+            scratch[previous + i] + 1), scratch[previous + i - 1] + cost);
+      }
+      final int swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return scratch[previous + a.length()];
+  }
+
+  private static final class Node {
+    final String mWord;
+    int[] mRows = new int[1];
+    int mRowCount;
+    Node[] mChildren = new Node[1];
+
+    Node(final String word) {
+      mWord = word;
+    }
+
+    void addRow(final int row) {
+      if (mRowCount > 0 && mRows[mRowCount - 1] == row) {
+        // The same word twice in one title.
+        return;
+      }
+      if (mRowCount == mRows.length) {
+        mRows = Arrays.copyOf(mRows, mRowCount * 2);
+      }
+      mRows[mRowCount++] = row;
+    }
+
+    Node child(final int distance, final Node child) {
+      if (distance >= mChildren.length) {
+        mChildren = Arrays.copyOf(mChildren, distance + 1);
+      }
+      mChildren[distance] = child;
+      return child;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package co.djuraev.chipsinput.chips;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process {@link SuggestionSource} over a list of entries, matching titles by substring like
+ * SuggestionsAdapter does. Meant for small directories and for tests, which can pass an executor
+ * that runs queries inline or add latency to exercise the paging. By default queries run on the
+ * thread shared by suggestion sources.
+ */
+public class InMemorySuggestionSource implements SuggestionSource {
+  private static ScheduledExecutorService sDelayExecutor;
+
+  private final List<ChipItem> mItems;
+  private final Executor mExecutor;
+  private volatile long mLatencyMillis;
+
+  public InMemorySuggestionSource(final List<ChipItem> items) {
+    this(items, Utils.getSuggestionExecutor());
+  }
+
+  public InMemorySuggestionSource(final List<ChipItem> items, final Executor executor) {
+    mItems = Collections.unmodifiableList(new ArrayList<>(items));
+    mExecutor = executor;
+  }
+
+  /**
+   * Delay every page by the given time, to simulate a slow backend. The query is handed to the
+   * executor once the time has passed, so waiting does not hold up other sources sharing it.
+   */
+  public void setLatency(final long millis) {
+    mLatencyMillis = millis;
+  }
+
+  @Override public void query(final String query, final int offset, final int pageSize,
+      final Callback callback) {
+    final Runnable lookup = new Runnable() {
+      @Override public void run() {
+        final String key = Utils.normalizeSuggestionKey(query);
+        final List<ChipItem> page = new ArrayList<>(pageSize);
+        int skipped = 0;
+        boolean hasMore = false;
+        for (final ChipItem item : mItems) {
+          if (!item.getTitle().toLowerCase().contains(key)) {
+            continue;
+          }
+          if (skipped < offset) {
+            skipped++;
+          } else if (page.size() < pageSize) {
+            page.add(item);
+          } else {
+            hasMore = true;
+            break;
+          }
+        }
+        callback.onPageLoaded(page, hasMore);
+      }
+    };
+    final long latency = mLatencyMillis;
+    if (latency <= 0) {
+      mExecutor.execute(lookup);
+      return;
+    }
+    getDelayExecutor().schedule(new Runnable() {
+      @Override public void run() {
+        mExecutor.execute(lookup);
+      }
+    }, latency, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get the daemon thread the latency is waited out on. It only hands queries on, so one is enough
+   * for all sources.
+   */
+  private static synchronized ScheduledExecutorService getDelayExecutor() {
+    if (sDelayExecutor == null) {
+      sDelayExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override public Thread newThread(final Runnable runnable) {
+          final Thread thread = new Thread(runnable, "SuggestionSourceDelay");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return sDelayExecutor;
+  }
+}
@@ -0,0 +1,122 @@
+package co.djuraev.chipsinput.chips;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations into fixed buckets whose bounds double from one microsecond up, the last one
+ * taking everything from about a minute. Recording is a few atomic adds and never allocates, so it
+ * can run on the UI thread and from several threads at once; {@link #snapshot()} copies the
+ * counts for reading.
+ */
+public final class LatencyHistogram {
+  public static final int BUCKET_COUNT = 28;
+
+  private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong mTotalNanos = new AtomicLong();
+  private final AtomicLong mMaxNanos = new AtomicLong();
+
+  /**
+   * Counts of a histogram at some point.
+   */
+  public static final class Snapshot {
+    private final long[] mCounts;
+    private final long mCount;
+    private final long mTotalNanos;
+    private final long mMaxNanos;
+
+    Snapshot(final long[] counts, final long totalNanos, final long maxNanos) {
+      long count = 0;
+      for (final long bucketCount : counts) {
+        count += bucketCount;
+      }
+      mCounts = counts;
+      mCount = count;
+      mTotalNanos = totalNanos;
+      mMaxNanos = maxNanos;
+    }
+
+    public long getCount() {
+      return mCount;
+    }
+
+    /**
+     * @return how many durations fell in a bucket, see {@link #getUpperBoundNanos(int)}
+     */
+    public long getBucketCount(final int bucket) {
+      return mCounts[bucket];
+    }
+
+    public long getTotalNanos() {
+      return mTotalNanos;
+    }
+
+    public long getMaxNanos() {
+      return mMaxNanos;
+    }
+
+    public long getMeanNanos() {
+      return mCount == 0 ? 0 : mTotalNanos / mCount;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding that percentile of the durations, at most
+     * the longest one, or 0 if there are none
+     */
+    public long getPercentileNanos(final double percentile) {
+      if (mCount == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        seen += mCounts[i];
+        if (seen >= rank) {
+          return Math.min(getUpperBoundNanos(i), mMaxNanos);
+        }
+      }
+      return mMaxNanos;
+    }
+  }
+
+  /**
+   * @return the exclusive upper bound of the durations counted in a bucket, or
+   * {@link Long#MAX_VALUE} for the last one
+   */
+  public static long getUpperBoundNanos(final int bucket) {
+    return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1000L << bucket;
+  }
+
+  public void record(final long durationNanos) {
+    mCounts.incrementAndGet(getBucket(durationNanos));
+    mTotalNanos.addAndGet(durationNanos);
+    long max = mMaxNanos.get();
+    while (durationNanos > max && !mMaxNanos.compareAndSet(max, durationNanos)) {
+      max = mMaxNanos.get();
+    }
+  }
+
+  public Snapshot snapshot() {
+    final long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = mCounts.get(i);
+    }
+    return new Snapshot(counts, mTotalNanos.get(), mMaxNanos.get());
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      mCounts.set(i, 0);
+    }
+    mTotalNanos.set(0);
+    mMaxNanos.set(0);
+  }
+
+  private static int getBucket(final long durationNanos) {
+    final long micros = durationNanos / 1000;
+    // Bucket i takes [2^(i-1), 2^i) microseconds, bucket 0 less than one.
+    final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    return Math.min(bucket, BUCKET_COUNT - 1);
+  }
+}
@@ -0,0 +1,376 @@
+package co.djuraev.chipsinput.chips;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Suggestions that can be changed while they are being searched. Changes are applied in batches by
+ * writers, e.g. a sync thread, and every batch publishes a new immutable {@link Snapshot}. Readers
+ * take the current snapshot without locking and never see a batch half applied.
+ *
+ * <p>A snapshot is a list of {@link CompactSuggestionStore} segments plus the set of rows removed
+ * since they were written. A batch only writes a segment with its new entries and marks the rows it
+ * replaces or removes, so its cost does not depend on the size of the directory; once there are
+ * too many segments or removed rows they are compacted into one.
+ */
+public class LiveSuggestionIndex {
+  private static final int MAX_SEGMENTS = 8;
+
+  /**
+   * Notified on the writer thread after a batch was published.
+   */
+  public interface Listener {
+    void onSnapshotChanged(Snapshot snapshot);
+  }
+
+  private final Object mWriteLock = new Object();
+  private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+  private volatile Snapshot mSnapshot;
+  // Row of each id in the current snapshot. Only used by writers, under mWriteLock.
+  private final HashMap<Long, Integer> mRows = new HashMap<>();
+
+  public LiveSuggestionIndex() {
+    this(new ArrayList<ChipItem>());
+  }
+
+  public LiveSuggestionIndex(final List<ChipItem> items) {
+    mSnapshot = index(CompactSuggestionStore.from(items), 0);
+  }
+
+  /**
+   * Get the current suggestions. The snapshot never changes, however long it is used.
+   */
+  public Snapshot getSnapshot() {
+    return mSnapshot;
+  }
+
+  public void addListener(final Listener listener) {
+    mListeners.add(listener);
+  }
+
+  public void removeListener(final Listener listener) {
+    mListeners.remove(listener);
+  }
+
+  /**
+   * Start a batch of changes. Nothing is visible before {@link Batch#apply()}.
+   */
+  public Batch edit() {
+    return new Batch();
+  }
+
+  /**
+   * Replace all the suggestions at once.
+   */
+  public void replaceAll(final List<ChipItem> items) {
+    final CompactSuggestionStore store = CompactSuggestionStore.from(items);
+    synchronized (mWriteLock) {
+      publish(index(store, mSnapshot.mVersion + 1));
+    }
+  }
+
+  private Snapshot index(final CompactSuggestionStore store, final long version) {
+    final BitSet removed = new BitSet();
+    mRows.clear();
+    for (int row = 0; row < store.size(); row++) {
+      // A later entry with the same id replaces the earlier one.
+      final Integer previous = mRows.put(store.getId(row), row);
+      if (previous != null) {
+        removed.set(previous);
+      }
+    }
+    return new Snapshot(new CompactSuggestionStore[] { store }, removed, version);
+  }
+
+  private void apply(final Map<Long, ChipItem> changes) {
+    synchronized (mWriteLock) {
+      final Snapshot current = mSnapshot;
+      final BitSet removed = (BitSet) current.mRemoved.clone();
+      final CompactSuggestionStore.Builder builder = new CompactSuggestionStore.Builder();
+      for (final Map.Entry<Long, ChipItem> change : changes.entrySet()) {
+        final Integer row = mRows.remove(change.getKey());
+        if (row != null) {
+          removed.set(row);
+        }
+        final ChipItem item = change.getValue();
+        if (item != null) {
+          mRows.put(change.getKey(), current.getRowCount() + builder.size());
+          builder.add(item.getId(), item.getTitle());
+        }
+      }
+      final CompactSuggestionStore[] segments;
+      if (builder.size() == 0) {
+        segments = current.mSegments;
+      } else {
+        segments = Arrays.copyOf(current.mSegments, current.mSegments.length + 1);
+        segments[segments.length - 1] = builder.build();
+      }
+      final Snapshot next = new Snapshot(segments, removed, current.mVersion + 1);
+      if (segments.length > MAX_SEGMENTS || next.size() < next.getRowCount() / 2) {
+        publish(compact(next));
+      } else {
+        publish(next);
+      }
+    }
+  }
+
+  private Snapshot compact(final Snapshot snapshot) {
+    final CompactSuggestionStore.Builder builder =
+        new CompactSuggestionStore.Builder(snapshot.size());
+    for (int row = 0; row < snapshot.getRowCount(); row++) {
+      if (snapshot.isLive(row)) {
+        builder.add(snapshot.getId(row), snapshot.getTitle(row));
+      }
+    }
+    return index(builder.build(), snapshot.mVersion);
+  }
+
+  private void publish(final Snapshot snapshot) {
+    mSnapshot = snapshot;
+    for (final Listener listener : mListeners) {
+      listener.onSnapshotChanged(snapshot);
+    }
+  }
+
+  /**
+   * A set of changes published together. Changes of the same id replace each other, the last one
+   * wins.
+   */
+  public final class Batch {
+    // A null value removes the id.
+    private final LinkedHashMap<Long, ChipItem> mChanges = new LinkedHashMap<>();
+
+    private Batch() {
+    }
+
+    /**
+     * Add an entry, or replace the one with the same id.
+     */
+    public Batch put(final ChipItem item) {
+      mChanges.remove(item.getId());
+      mChanges.put(item.getId(), item);
+      return this;
+    }
+
+    public Batch remove(final long id) {
+      mChanges.remove(id);
+      mChanges.put(id, null);
+      return this;
+    }
+
+    /**
+     * Publish the changes. Readers see either all of them or none.
+     */
+    public void apply() {
+      LiveSuggestionIndex.this.apply(mChanges);
+    }
+  }
+
+  /**
+   * Immutable view of the suggestions at one point in time. Rows are numbered across segments and
+   * include the removed ones, which {@link #isLive} tells apart; row numbers stay valid for the
+   * life of the snapshot.
+   */
+  public static final class Snapshot {
+    private final CompactSuggestionStore[] mSegments;
+    // First row of each segment, and the row count at the end.
+    private final int[] mStarts;
+    // Never modified once the snapshot is published.
+    private final BitSet mRemoved;
+    private final int mLiveCount;
+    private final long mVersion;
+    // Built on first use; racing threads build equal arrays.
+    private volatile int[] mLiveRows;
+
+    private Snapshot(final CompactSuggestionStore[] segments, final BitSet removed,
+        final long version) {
+      mSegments = segments;
+      mStarts = new int[segments.length + 1];
+      for (int i = 0; i < segments.length; i++) {
+        mStarts[i + 1] = mStarts[i] + segments[i].size();
+      }
+      mRemoved = removed;
+      mLiveCount = getRowCount() - removed.cardinality();
+      mVersion = version;
+    }
+
+    /**
+     * Get the number of the batch this snapshot was published by; later snapshots have greater
+     * versions.
+     */
+    public long getVersion() {
+      return mVersion;
+    }
+
+    /**
+     * @return the number of rows, removed ones included
+     */
+    public int getRowCount() {
+      return mStarts[mSegments.length];
+    }
+
+    /**
+     * @return the number of live suggestions
+     */
+    public int size() {
+      return mLiveCount;
+    }
+
+    public boolean isLive(final int row) {
+      return !mRemoved.get(row);
+    }
+
+    /**
+     * Tell whether the rows of an earlier snapshot have the same numbers and entries in this one,
+     * i.e. whether only rows were appended and removed since, so what was computed for its rows
+     * can be kept and completed with the new ones.
+     */
+    public boolean hasRowsOf(final Snapshot earlier) {
+      if (earlier.mSegments.length > mSegments.length) {
+        return false;
+      }
+      for (int i = 0; i < earlier.mSegments.length; i++) {
+        if (earlier.mSegments[i] != mSegments[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Get the row of the live suggestion at an index in [0, {@link #size()}).
+     */
+    public int getLiveRow(final int index) {
+      if (mLiveCount == getRowCount()) {
+        return index;
+      }
+      int[] liveRows = mLiveRows;
+      if (liveRows == null) {
+        liveRows = new int[mLiveCount];
+        for (int row = mRemoved.nextClearBit(0), i = 0; i < mLiveCount;
+            row = mRemoved.nextClearBit(row + 1)) {
+          liveRows[i++] = row;
+        }
+        mLiveRows = liveRows;
+      }
+      return liveRows[index];
+    }
+
+    private int segmentOf(final int row) {
+      int low = 0;
+      int high = mSegments.length - 1;
+      while (low < high) {
+        final int mid = (low + high + 1) >>> 1;
+        if (mStarts[mid] <= row) {
+          low = mid;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return low;
+    }
+
+    public long getId(final int row) {
+      final int segment = segmentOf(row);
+      return mSegments[segment].getId(row - mStarts[segment]);
+    }
+
+    public String getTitle(final int row) {
+      final int segment = segmentOf(row);
+      return mSegments[segment].getTitle(row - mStarts[segment]);
+    }
+
+    /**
+     * Get the chars holding the title of a row, which starts at {@link #getTitleStart}.
+     */
+    public char[] getTitleChars(final int row) {
+      return mSegments[segmentOf(row)].getTitleChars();
+    }
+
+    public int getTitleStart(final int row) {
+      final int segment = segmentOf(row);
+      return mSegments[segment].getTitleStart(row - mStarts[segment]);
+    }
+
+    public int getTitleLength(final int row) {
+      final int segment = segmentOf(row);
+      return mSegments[segment].getTitleLength(row - mStarts[segment]);
+    }
+
+    public String getKey(final int row) {
+      final int segment = segmentOf(row);
+      return mSegments[segment].getKey(row - mStarts[segment]);
+    }
+
+    public ChipItem createItem(final int row) {
+      final int segment = segmentOf(row);
+      return mSegments[segment].createItem(row - mStarts[segment]);
+    }
+
+    /**
+     * Get the normalized keys of all rows, removed ones included.
+     */
+    public List<String> keys() {
+      return new AbstractList<String>() {
+        @Override public String get(final int row) {
+          return getKey(row);
+        }
+
+        @Override public int size() {
+          return getRowCount();
+        }
+      };
+    }
+
+    /**
+     * @see CompactSuggestionStore#indexOfKey
+     */
+    public int indexOfKey(final int row, final String query) {
+      final int segment = segmentOf(row);
+      return mSegments[segment].indexOfKey(row - mStarts[segment], query);
+    }
+
+    public boolean keyContains(final int row, final String query) {
+      return indexOfKey(row, query) >= 0;
+    }
+
+    /**
+     * @see CompactSuggestionStore#digitsContain
+     */
+    public boolean digitsContain(final int row, final String digits) {
+      final int segment = segmentOf(row);
+      return mSegments[segment].digitsContain(row - mStarts[segment], digits);
+    }
+
+    /**
+     * Find the rows whose title digits contain some digits, with the digit index of each segment.
+     *
+     * @return the matching rows, removed ones included
+     * @see CompactSuggestionStore#findRowsWithDigits
+     */
+    public BitSet findRowsWithDigits(final String digits) {
+      final BitSet rows = new BitSet(getRowCount());
+      for (int segment = 0; segment < mSegments.length; segment++) {
+        for (final int row : mSegments[segment].findRowsWithDigits(digits)) {
+          rows.set(mStarts[segment] + row);
+        }
+      }
+      return rows;
+    }
+
+    /**
+     * @see CompactSuggestionStore#keyIndexToTitleIndex
+     */
+    public int keyIndexToTitleIndex(final int row, final int keyIndex) {
+      final int segment = segmentOf(row);
+      return mSegments[segment].keyIndexToTitleIndex(row - mStarts[segment], keyIndex);
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package co.djuraev.chipsinput.chips;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link SuggestionSource} reading an index file written by {@link SuggestionIndexWriter} through
+ * a memory mapping. Opening only reads the header, and queries binary search the mapped terms in
+ * place, so the directory is never deserialized and stays off the Java heap. A query matches the
+ * rows having a word that starts with it.
+ */
+public class MappedSuggestionIndex implements SuggestionSource {
+  static final int MAGIC = 0x43484958; // "CHIX"
+  static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+
+  private final int mRowCount;
+  private final int mTermCount;
+  // Views of the mapping. Only absolute reads are used, so they can be shared between threads.
+  private final LongBuffer mIds;
+  private final IntBuffer mTitleOffsets;
+  private final IntBuffer mKeyOffsets;
+  private final IntBuffer mTermRows;
+  private final IntBuffer mTermStarts;
+  private final CharBuffer mTitles;
+  private final CharBuffer mKeys;
+  private final Executor mExecutor;
+
+  private MappedSuggestionIndex(final MappedByteBuffer map, final Executor executor)
+      throws IOException {
+    if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+      throw new IOException("Not a suggestion index");
+    }
+    mRowCount = map.getInt(8);
+    mTermCount = map.getInt(12);
+    final int titleChars = map.getInt(16);
+    final int keyChars = map.getInt(20);
+    if (mRowCount < 0 || mTermCount < 0 || titleChars < 0 || keyChars < 0) {
+      throw new IOException("Corrupt suggestion index");
+    }
+    // Counted in longs, so counts of a damaged header cannot overflow into a size that fits.
+    final long size = HEADER_SIZE + mRowCount * 8L + (mRowCount + 1L) * 4 * 2 + mTermCount * 4L * 2
+        + (titleChars + (long) keyChars) * 2;
+    if (size > map.capacity()) {
+      throw new IOException("Truncated suggestion index");
+    }
+    int position = HEADER_SIZE;
+    mIds = slice(map, position, mRowCount * 8).asLongBuffer();
+    position += mRowCount * 8;
+    mTitleOffsets = slice(map, position, (mRowCount + 1) * 4).asIntBuffer();
+    position += (mRowCount + 1) * 4;
+    mKeyOffsets = slice(map, position, (mRowCount + 1) * 4).asIntBuffer();
+    position += (mRowCount + 1) * 4;
+    mTermRows = slice(map, position, mTermCount * 4).asIntBuffer();
+    position += mTermCount * 4;
+    mTermStarts = slice(map, position, mTermCount * 4).asIntBuffer();
+    position += mTermCount * 4;
+    mTitles = slice(map, position, titleChars * 2).asCharBuffer();
+    position += titleChars * 2;
+    mKeys = slice(map, position, keyChars * 2).asCharBuffer();
+    mExecutor = executor;
+  }
+
+  /**
+   * Map an index file. Queries are answered on the thread shared by suggestion sources.
+   */
+  public static MappedSuggestionIndex open(final File file) throws IOException {
+    return open(file, Utils.getSuggestionExecutor());
+  }
+
+  public static MappedSuggestionIndex open(final File file, final Executor executor)
+      throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      // The mapping stays valid after the channel is closed.
+      final FileChannel channel = raf.getChannel();
+      return new MappedSuggestionIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size()), executor);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static ByteBuffer slice(final ByteBuffer map, final int position, final int length) {
+    final ByteBuffer duplicate = map.duplicate();
+    duplicate.position(position);
+    duplicate.limit(position + length);
+    return duplicate.slice();
+  }
+
+  public int size() {
+    return mRowCount;
+  }
+
+  public long getId(final int row) {
+    return mIds.get(row);
+  }
+
+  public String getTitle(final int row) {
+    final int start = mTitleOffsets.get(row);
+    final char[] title = new char[mTitleOffsets.get(row + 1) - start];
+    for (int i = 0; i < title.length; i++) {
+      title[i] = mTitles.get(start + i);
+    }
+    return new String(title);
+  }
+
+  public ChipItem createItem(final int row) {
+    return new ChipItem(getId(row), getTitle(row));
+  }
+
+  /**
+   * Find the rows having a word that starts with the query, in the order of their matching words.
+   *
+   * @param offset number of matching rows to skip
+   * @param limit maximum number of rows to return
+   */
+  public int[] search(final String query, final int offset, final int limit) {
+    final String prefix = Utils.normalizeSuggestionKey(query);
+    final Set<Integer> seen = new HashSet<>();
+    int[] rows = new int[Math.max(0, Math.min(limit, 64))];
+    int count = 0;
+    for (int term = lowerBound(prefix); term < mTermCount && count < limit; term++) {
+      if (!termStartsWith(term, prefix)) {
+        break;
+      }
+      // A row with several matching words is only reported once.
+      if (!seen.add(mTermRows.get(term)) || seen.size() <= offset) {
+        continue;
+      }
+      if (count == rows.length) {
+        rows = Arrays.copyOf(rows, Math.min(limit, count * 2));
+      }
+      rows[count++] = mTermRows.get(term);
+    }
+    return count == rows.length ? rows : Arrays.copyOf(rows, count);
+  }
+
+  @Override public void query(final String query, final int offset, final int pageSize,
+      final Callback callback) {
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        // Ask for one more row to learn whether there is another page.
+        final int[] rows = search(query, offset, pageSize + 1);
+        final List<ChipItem> page = new ArrayList<>(Math.min(rows.length, pageSize));
+        for (int i = 0; i < rows.length && i < pageSize; i++) {
+          page.add(createItem(rows[i]));
+        }
+        callback.onPageLoaded(page, rows.length > pageSize);
+      }
+    });
+  }
+
+  /**
+   * Get the first term not sorting before the prefix.
+   */
+  private int lowerBound(final String prefix) {
+    int low = 0;
+    int high = mTermCount;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (compareTerm(mid, prefix) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int compareTerm(final int term, final String prefix) {
+    int i = mTermStarts.get(term);
+    final int end = mKeyOffsets.get(mTermRows.get(term) + 1);
+    int j = 0;
+    for (; i < end && j < prefix.length(); i++, j++) {
+      final char c = mKeys.get(i);
+      if (c != prefix.charAt(j)) {
+        return c - prefix.charAt(j);
+      }
+    }
+    return (end - i) - (prefix.length() - j);
+  }
+
+  private boolean termStartsWith(final int term, final String prefix) {
+    final int start = mTermStarts.get(term);
+    final int end = mKeyOffsets.get(mTermRows.get(term) + 1);
+    if (end - start < prefix.length()) {
+      return false;
+    }
+    for (int j = 0; j < prefix.length(); j++) {
+      if (mKeys.get(start + j) != prefix.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
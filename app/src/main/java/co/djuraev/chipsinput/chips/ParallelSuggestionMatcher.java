@@ -0,0 +1,147 @@
+package co.djuraev.chipsinput.chips;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Scans suggestion rows for matches, splitting large scans into partitions that are matched
+ * concurrently on a shared pool with one thread per core. Every partition keeps its first
+ * {@code maxResults} matches and the partitions are merged in row order, so the result is the same
+ * as a sequential scan.
+ */
+public class ParallelSuggestionMatcher {
+  private static final String TAG = ParallelSuggestionMatcher.class.getSimpleName();
+  /**
+   * Below this number of rows a scan is cheaper than handing work to other threads.
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+  private static final int PARTITIONS_PER_THREAD = 2;
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  private static ExecutorService sPool;
+
+  /**
+   * Tells whether a row matches. Called concurrently from several threads.
+   */
+  public interface RowPredicate {
+    boolean matches(int row);
+  }
+
+  private final int mThreshold;
+  private final int mThreads;
+  private final ExecutorService mPool;
+
+  public ParallelSuggestionMatcher() {
+    this(DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  public ParallelSuggestionMatcher(final int threshold) {
+    this(threshold, THREADS, null);
+  }
+
+  /**
+   * Split scans for a number of threads and match them on a pool of that size, instead of on the
+   * shared pool with one thread per core.
+   */
+  ParallelSuggestionMatcher(final int threshold, final int threads, final ExecutorService pool) {
+    mThreshold = threshold;
+    mThreads = threads;
+    mPool = pool;
+  }
+
+  /**
+   * Get the first {@code maxResults} rows in [0, rowCount) that match, in row order.
+   */
+  public int[] match(final int rowCount, final int maxResults, final RowPredicate predicate) {
+    if (mThreads < 2 || rowCount < mThreshold) {
+      return matchRange(0, rowCount, maxResults, predicate);
+    }
+    final int partitions = mThreads * PARTITIONS_PER_THREAD;
+    final int partitionSize = (rowCount + partitions - 1) / partitions;
+    final List<Future<int[]>> futures = new ArrayList<>(partitions);
+    final ExecutorService pool = mPool != null ? mPool : getPool();
+    for (int start = 0; start < rowCount; start += partitionSize) {
+      final int from = start;
+      final int to = Math.min(rowCount, start + partitionSize);
+      futures.add(pool.submit(new Callable<int[]>() {
+        @Override public int[] call() {
+          return matchRange(from, to, maxResults, predicate);
+        }
+      }));
+    }
+
+    final List<int[]> partitionRows = new ArrayList<>(futures.size());
+    int total = 0;
+    try {
+      for (int i = 0; i < futures.size() && total < maxResults; i++) {
+        final int[] rows = futures.get(i).get();
+        partitionRows.add(rows);
+        total += rows.length;
+      }
+    } catch (final InterruptedException e) {
+      // Filter does not interrupt its thread when a newer query comes, so this only happens when
+      // the caller's thread is interrupted on purpose; give up and let it see the flag.
+      Thread.currentThread().interrupt();
+      cancelAll(futures);
+      return new int[0];
+    } catch (final ExecutionException e) {
+      Log.e(TAG, "Parallel matching failed, scanning sequentially", e);
+      cancelAll(futures);
+      return matchRange(0, rowCount, maxResults, predicate);
+    }
+    // Partitions further down cannot make it into the result any more.
+    cancelAll(futures);
+
+    final int[] merged = new int[Math.min(total, maxResults)];
+    int offset = 0;
+    for (final int[] rows : partitionRows) {
+      final int take = Math.min(rows.length, merged.length - offset);
+      System.arraycopy(rows, 0, merged, offset, take);
+      offset += take;
+    }
+    return merged;
+  }
+
+  private static int[] matchRange(final int from, final int to, final int maxResults,
+      final RowPredicate predicate) {
+    int[] rows = new int[Math.min(16, Math.max(0, maxResults))];
+    int count = 0;
+    for (int row = from; row < to && count < maxResults; row++) {
+      if (predicate.matches(row)) {
+        if (count == rows.length) {
+          rows = Arrays.copyOf(rows, Math.min(maxResults, Math.max(16, count * 2)));
+        }
+        rows[count++] = row;
+      }
+    }
+    return count == rows.length ? rows : Arrays.copyOf(rows, count);
+  }
+
+  private static void cancelAll(final List<Future<int[]>> futures) {
+    for (final Future<int[]> future : futures) {
+      future.cancel(false);
+    }
+  }
+
+  private static synchronized ExecutorService getPool() {
+    if (sPool == null) {
+      sPool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private int mCount;
+
+        @Override public Thread newThread(final Runnable runnable) {
+          final Thread thread = new Thread(runnable, "SuggestionMatcher-" + mCount++);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return sPool;
+  }
+}
@@ -0,0 +1,201 @@
+package co.djuraev.chipsinput.chips;
+
+/**
+ * Recognizes and normalizes phone numbers in a single pass, without regular expressions and
+ * without allocating for recognition.
+ *
+ * <p>Numbers are accepted in the shape android.util.Patterns uses, tweaked to take a "1" before
+ * parens: an optional "+" and country code, an optional area code in parens, then at least four
+ * digits, dashes, dots or spaces that start and end with a digit, e.g. "+1 (425) 222-2342".
+ */
+public final class PhoneNumbers {
+
+  private PhoneNumbers() {
+  }
+
+  /**
+   * Tell whether the whole text is a phone number.
+   */
+  public static boolean isPhoneNumber(final CharSequence text) {
+    if (text == null) {
+      return false;
+    }
+    final int length = text.length();
+    final int open = indexOf(text, '(');
+    if (open >= 0) {
+      if (!isAreaCodePrefix(text, open)) {
+        return false;
+      }
+      final int close = skipDigits(text, open + 1, length);
+      if (close == open + 1 || close == length || text.charAt(close) != ')') {
+        return false;
+      }
+      return isLocalNumber(text, skipSeparators(text, close + 1, length), length);
+    }
+    if (length > 0 && text.charAt(0) == '+') {
+      final int countryEnd = skipDigits(text, 1, length);
+      if (countryEnd == 1) {
+        return false;
+      }
+      // The local number takes all but one digit of the country code, if it can start there.
+      final int start = countryEnd > 2 ? 2 : skipSeparators(text, countryEnd, length);
+      return isLocalNumber(text, start, length);
+    }
+    return isLocalNumber(text, 0, length);
+  }
+
+  /**
+   * Tell whether typed text could be the start or a part of a phone number: it has a digit and
+   * nothing but digits, separators, parens and a leading "+".
+   */
+  public static boolean isPartialNumber(final CharSequence text) {
+    boolean digits = false;
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (isDigit(c)) {
+        digits = true;
+      } else if (!isSeparator(c) && c != '(' && c != ')' && (c != '+' || i != 0)) {
+        return false;
+      }
+    }
+    return digits;
+  }
+
+  /**
+   * Copy the digits of some text into a buffer, which needs room for {@code text.length()} chars.
+   *
+   * @return the number of digits
+   */
+  public static int getDigits(final CharSequence text, final char[] out) {
+    return getDigits(text, out, 0);
+  }
+
+  static int getDigits(final CharSequence text, final char[] out, final int offset) {
+    int count = 0;
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (isDigit(c)) {
+        out[offset + count++] = c;
+      }
+    }
+    return count;
+  }
+
+  public static String getDigits(final CharSequence text) {
+    final char[] digits = new char[text.length()];
+    return new String(digits, 0, getDigits(text, digits));
+  }
+
+  /**
+   * Get the canonical form of a number, "+" followed by the country code and the national number,
+   * so the ways of writing one number compare equal. Numbers starting with "+" or with the "00"
+   * international prefix carry their country code. Others are taken as national numbers of the
+   * default country, dropping a "0" trunk prefix, unless they are longer than ten digits and
+   * already start with the default country code.
+   *
+   * @param defaultCountryCode country code of national numbers, e.g. "1"; when null they are only
+   * reduced to their digits
+   */
+  public static String canonicalize(final CharSequence number, final String defaultCountryCode) {
+    final int room = 1 + (defaultCountryCode == null ? 0 : defaultCountryCode.length());
+    // Leave room in front for "+" and the country code.
+    final char[] chars = new char[room + number.length()];
+    int start = room;
+    final int end = start + getDigits(number, chars, start);
+    if (indexOf(number, '+') < 0) {
+      if (end - start > 2 && chars[start] == '0' && chars[start + 1] == '0') {
+        // International prefix.
+        start += 2;
+      } else if (defaultCountryCode == null) {
+        return new String(chars, start, end - start);
+      } else {
+        if (end > start && chars[start] == '0') {
+          start++;
+        }
+        if (end - start <= 10 || !startsWith(chars, start, end, defaultCountryCode)) {
+          start -= defaultCountryCode.length();
+          defaultCountryCode.getChars(0, defaultCountryCode.length(), chars, start);
+        }
+      }
+    }
+    chars[--start] = '+';
+    return new String(chars, start, end - start);
+  }
+
+  private static boolean isAreaCodePrefix(final CharSequence text, int end) {
+    // (\+[0-9]+[\- \.]*)?1?[ ]*
+    while (end > 0 && text.charAt(end - 1) == ' ') {
+      end--;
+    }
+    if (end == 0 || end == 1 && text.charAt(0) == '1') {
+      return true;
+    }
+    if (text.charAt(0) != '+') {
+      return false;
+    }
+    final int countryEnd = skipDigits(text, 1, end);
+    if (countryEnd == 1) {
+      return false;
+    }
+    final int separatorsEnd = skipSeparators(text, countryEnd, end);
+    return separatorsEnd == end || separatorsEnd == end - 1 && text.charAt(end - 1) == '1';
+  }
+
+  private static boolean isLocalNumber(final CharSequence text, final int start, final int end) {
+    // [0-9][0-9\- \.][0-9\- \.]+[0-9]
+    if (end - start < 4 || !isDigit(text.charAt(start)) || !isDigit(text.charAt(end - 1))) {
+      return false;
+    }
+    for (int i = start + 1; i < end - 1; i++) {
+      final char c = text.charAt(i);
+      if (!isDigit(c) && !isSeparator(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int skipDigits(final CharSequence text, int i, final int end) {
+    while (i < end && isDigit(text.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int skipSeparators(final CharSequence text, int i, final int end) {
+    while (i < end && isSeparator(text.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int indexOf(final CharSequence text, final char c) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(final char[] chars, final int start, final int end,
+      final String prefix) {
+    if (end - start < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (chars[start + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isSeparator(final char c) {
+    return c == '-' || c == ' ' || c == '.';
+  }
+}
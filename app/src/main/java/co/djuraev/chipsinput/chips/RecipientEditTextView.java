@@ -18,20 +18,20 @@ package co.djuraev.chipsinput.chips;
 
 import android.content.ClipData;
 import android.content.ClipDescription;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnDismissListener;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Message;
@@ -40,8 +40,11 @@ import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.AppCompatMultiAutoCompleteTextView;
 import android.text.Editable;
 import android.text.InputType;
+import android.text.NoCopySpan;
 import android.text.Spannable;
 import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
+import android.text.SpanWatcher;
 import android.text.Spanned;
 import android.text.TextPaint;
 import android.text.TextUtils;
@@ -49,7 +52,6 @@ import android.text.TextWatcher;
 import android.text.method.QwertyKeyListener;
 import android.text.style.ImageSpan;
 import android.text.util.Rfc822Token;
-import android.text.util.Rfc822Tokenizer;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
@@ -64,6 +66,7 @@ import android.view.View;
 import android.view.ViewParent;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.Filterable;
@@ -77,6 +80,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -96,7 +101,16 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   private static final String TAG = RecipientEditTextView.class.getSimpleName();
   private static final int DISMISS = "dismiss".hashCode();
   static final int CHIP_LIMIT = 2;
+  /**
+   * Bytes of chip bitmaps a field holds by default, see {@link #setChipBitmapBudget(long)}.
+   */
+  public static final long DEFAULT_CHIP_BITMAP_BUDGET = 4 * 1024 * 1024;
   private static final int MAX_CHIPS_PARSED = 50;
+  // Work deferred to the next frame, see doDeferredWork.
+  private static final int WORK_PENDING_CHIPS = 1;
+  private static final int WORK_CHIP_LISTS = 1 << 1;
+  private static final int WORK_CHIP_WIDTHS = 1 << 2;
+  private static final int WORK_TEXT_WATCHER = 1 << 3;
   private static int sSelectedTextColor = -1;
   private Drawable mChipBackground = null;
   private Drawable mChipDelete = null;
@@ -113,7 +127,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   private Tokenizer mTokenizer;
   private Validator mValidator;
   private DrawableRecipientChip mSelectedChip;
-  private Bitmap mDefaultContactPhoto;
+  private ChipResources mChipResources;
   private ImageSpan mMoreChip;
   private final ArrayList<String> mPendingChips = new ArrayList<>();
   private final Handler mHandler;
@@ -124,21 +138,51 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   private boolean mShouldShrink = true;
   private GestureDetector mGestureDetector;
   private String mCopyAddress;
-  private TextWatcher mTextWatcher;
+  private RecipientTextWatcher mTextWatcher;
 
   private ScrollView mScrollView;
   private boolean mTriedGettingScrollView;
   private static int sExcessTopPadding = -1;
   private int mActionBarHeight;
   private boolean mAttachedToWindow;
-  private final Runnable mAddTextWatcher;
-  private final Runnable mHandlePendingChips;
+  private final ComponentCallbacks2 mMemoryCallbacks = new ComponentCallbacks2() {
+    @Override public void onTrimMemory(final int level) {
+      // From running low on memory in the foreground to being about to be killed in the
+      // background, chips are cheap to draw again.
+      if (level >= TRIM_MEMORY_RUNNING_LOW) {
+        releaseChipPixels();
+      }
+    }
+
+    @Override public void onLowMemory() {
+      releaseChipPixels();
+    }
+
+    @Override public void onConfigurationChanged(final Configuration newConfig) {
+    }
+  };
+  private final FrameScheduler mDeferredWork;
+  // Lists given to setChipsList, added in the next frame, after the list given to updateChipsList
+  // before them, if any, was put in place of the chips once the field is laid out.
+  private final ArrayList<List<String>> mPendingChipLists = new ArrayList<>();
+  private List<String> mPendingChipUpdate;
   private IChipListener mChipListener;
   private int mPreviousChipsCount = 0;
+  private ChipSpanWatcher mChipWatcher;
+  private final ChipBitmapBudget mChipBitmaps = new ChipBitmapBudget(DEFAULT_CHIP_BITMAP_BUDGET);
+  private final ChipHitIndex mChipHits = new ChipHitIndex();
+  // Depth of the batch edit the input method is in, see BatchEditConnection.
+  private int mBatchEditDepth;
+  private ChipsMetrics mMetrics;
   private final EnumSet<FocusBehavior> mFocusBehavior = EnumSet.allOf(FocusBehavior.class);
   private int mStartTouchY = -1;
   private boolean mIsScrolling = false;
   private boolean mChipAllowDuplicate;
+  private boolean mPhoneQuery;
+  // Country code of numbers typed without one, null to compare numbers by their digits only.
+  private String mDefaultCountryCode;
+  // Number of suggestions the dropdown was last shown with.
+  private int mShownSuggestionCount = -1;
 
   public boolean ismChipAllowDuplicate() {
     return mChipAllowDuplicate;
@@ -158,19 +202,11 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
 
   public RecipientEditTextView(final Context context, final AttributeSet attrs) {
     super(context, attrs);
-    mAddTextWatcher = new Runnable() {
-      @Override public void run() {
-        if (mTextWatcher == null) {
-          mTextWatcher = new RecipientTextWatcher();
-          addTextChangedListener(mTextWatcher);
-        }
-      }
-    };
-    mHandlePendingChips = new Runnable() {
-      @Override public void run() {
-        handlePendingChips();
+    mDeferredWork = new FrameScheduler(this, new FrameScheduler.Worker() {
+      @Override public void doWork(final int work) {
+        doDeferredWork(work);
       }
-    };
+    });
     setChipDimensions(context, attrs);
     if (sSelectedTextColor == -1) {
       sSelectedTextColor = context.getResources().getColor(android.R.color.white);
@@ -187,6 +223,9 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
         super.handleMessage(msg);
       }
     };
+    super.setEditableFactory(new ChipCountingFactory(ChipEditable.FACTORY));
+    // Remake the text set by TextView's constructor, which was made by the default factory.
+    setText(getText());
     mTextWatcher = new RecipientTextWatcher();
     addTextChangedListener(mTextWatcher);
     mGestureDetector = new GestureDetector(context, this);
@@ -217,11 +256,17 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
 
   @Override protected void onDetachedFromWindow() {
     mAttachedToWindow = false;
+    getContext().getApplicationContext().unregisterComponentCallbacks(mMemoryCallbacks);
+    // The chips are drawn again, from their entries, if the field comes back.
+    mChipBitmaps.releaseAll();
+    mChipResources.release();
     super.onDetachedFromWindow();
   }
 
   @Override protected void onAttachedToWindow() {
     mAttachedToWindow = true;
+    getContext().getApplicationContext().registerComponentCallbacks(mMemoryCallbacks);
+    mChipResources.acquire();
     super.onAttachedToWindow();
   }
 
@@ -255,7 +300,56 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     }
     outAttrs.actionId = EditorInfo.IME_ACTION_DONE;
     outAttrs.actionLabel = getContext().getString(R.string.done);
-    return connection;
+    if (connection == null) {
+      return null;
+    }
+    // A batch left open by the previous connection is over.
+    finishBatchEdit();
+    return new BatchEditConnection(connection);
+  }
+
+  /**
+   * Called when the text view ends its batch edits, which it also does for a connection that
+   * closes in the middle of one.
+   */
+  @Override public void onEndBatchEdit() {
+    super.onEndBatchEdit();
+    finishBatchEdit();
+  }
+
+  private void finishBatchEdit() {
+    if (mBatchEditDepth > 0) {
+      mBatchEditDepth = 0;
+      if (mTextWatcher != null) {
+        mTextWatcher.handleBatchEdit();
+      }
+    }
+  }
+
+  /**
+   * Tracks the batch edits of the input method. Composing, swiping and autocorrecting send many
+   * changes in one batch; the text watcher puts them together and handles them once at the end of
+   * the outermost batch, as a single change of the range they touched.
+   */
+  private class BatchEditConnection extends InputConnectionWrapper {
+    BatchEditConnection(final InputConnection target) {
+      super(target, false);
+    }
+
+    @Override public boolean beginBatchEdit() {
+      mBatchEditDepth++;
+      return super.beginBatchEdit();
+    }
+
+    @Override public boolean endBatchEdit() {
+      final boolean result = super.endBatchEdit();
+      if (mBatchEditDepth == 1) {
+        finishBatchEdit();
+      } else if (mBatchEditDepth > 1) {
+        mBatchEditDepth--;
+      }
+      return result;
+    }
   }
 
   DrawableRecipientChip getLastChip() {
@@ -318,9 +412,9 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     // Put a message on the queue to make sure we ALWAYS handle pending
     // chips.
     if (mPendingChipsCount > 0) {
-      postHandlePendingChips();
+      mDeferredWork.schedule(WORK_PENDING_CHIPS);
     }
-    mHandler.post(mAddTextWatcher);
+    mDeferredWork.schedule(WORK_TEXT_WATCHER);
   }
 
   @Override
@@ -356,6 +450,32 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     //    });
   }
 
+  /**
+   * Show the suggestions of a paged {@link SuggestionSource}. Only the pages the user scrolls to
+   * are ever loaded.
+   */
+  public void setAdapter(final SuggestionSource source) {
+    setAdapter(new SuggestionSourceAdapter(getContext(), source));
+  }
+
+  /**
+   * Show the suggestions found in the full text index of a contacts table. Contacts are read from
+   * the database as they are shown, never all at once.
+   */
+  public void setAdapter(final FtsSuggestionProvider provider) {
+    setAdapter(new FtsSuggestionAdapter(getContext(), provider));
+  }
+
+  @Override public void onFilterComplete(final int count) {
+    if (count > 0 && count == mShownSuggestionCount && isPopupShowing() && enoughToFilter()) {
+      // The adapter already rebound the rows that changed; showing the popup again would only
+      // measure it again at the same height.
+      return;
+    }
+    super.onFilterComplete(count);
+    mShownSuggestionCount = isPopupShowing() ? count : -1;
+  }
+
   private void scrollBottomIntoView() {
     if (mScrollView != null && mShouldShrink) {
       final int[] location = new int[2];
@@ -477,14 +597,14 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     //Bitmap scaledIconBitMap = scaleDown(iconBitmap, (float) height * 0.70f, true);
     //iconBitmap.recycle();
 
-    final RectF src =
-        new RectF(0, 0, mDefaultContactPhoto.getWidth(), mDefaultContactPhoto.getHeight());
+    final Bitmap photo = getDefaultContactPhoto();
+    final RectF src = new RectF(0, 0, photo.getWidth(), photo.getHeight());
 
     final RectF dst = new RectF(0 + backgroundPadding.left, 0 + backgroundPadding.top,
         iconWidth + backgroundPadding.right, height - backgroundPadding.bottom);
     final Matrix matrix = new Matrix();
     matrix.setRectToRect(src, dst, Matrix.ScaleToFit.FILL);
-    canvas.drawBitmap(mDefaultContactPhoto, matrix, paint);
+    canvas.drawBitmap(photo, matrix, paint);
   }
 
   private Bitmap scaleDown(Bitmap realImage, float maxImageSize, boolean filter) {
@@ -533,6 +653,20 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
       throw new NullPointerException(
           "Unable to render any chips as setChipDimensions was not called.");
     }
+    final Bitmap tmpBitmap = renderChip(contact, pressed, leaveIconSpace);
+    // Pass the full text, un-ellipsized, to the chip. Its bitmap may be released to keep the
+    // field within its budget, and is then rendered again when drawn.
+    final Drawable result = new ChipBitmapDrawable(tmpBitmap, new ChipBitmapDrawable.Renderer() {
+      @Override public Bitmap render() {
+        return renderChip(contact, pressed, leaveIconSpace);
+      }
+    }, mChipBitmaps);
+    return new VisibleRecipientChip(result, contact);
+  }
+
+  private Bitmap renderChip(final ChipItem contact, final boolean pressed,
+      final boolean leaveIconSpace) {
+    final long startTime = startTiming();
     final TextPaint paint = getPaint();
     final float defaultSize = paint.getTextSize();
     final int defaultColor = paint.getColor();
@@ -542,14 +676,11 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     } else {
       tmpBitmap = createUnselectedChip(contact, paint, leaveIconSpace);
     }
-    // Pass the full text, un-ellipsized, to the chip.
-    final Drawable result = new BitmapDrawable(getResources(), tmpBitmap);
-    result.setBounds(0, 0, tmpBitmap.getWidth(), tmpBitmap.getHeight());
-    final DrawableRecipientChip recipientChip = new VisibleRecipientChip(result, contact);
     // Return text to the original size.
     paint.setTextSize(defaultSize);
     paint.setColor(defaultColor);
-    return recipientChip;
+    reportTiming(ChipsMetrics.Operation.CONSTRUCT_CHIP, startTime, tmpBitmap.getByteCount());
+    return tmpBitmap;
   }
 
   /**
@@ -575,16 +706,40 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.RecipientEditTextView, 0, 0);
     final Resources resources = getContext().getResources();
 
-    mChipBackground = a.getDrawable(R.styleable.RecipientEditTextView_chipBackground);
-    mChipBackgroundPressed = a.getDrawable(R.styleable.RecipientEditTextView_chipBackgroundPressed);
-    mChipDelete = a.getDrawable(R.styleable.RecipientEditTextView_chipDelete);
+    // Fields of the same style share their drawables and photo.
+    final int[] drawableIds = new int[ChipResources.DRAWABLE_COUNT];
+    drawableIds[ChipResources.BACKGROUND] = ChipResources.getDrawableId(a,
+        R.styleable.RecipientEditTextView_chipBackground, R.drawable.chip_background);
+    drawableIds[ChipResources.BACKGROUND_PRESSED] =
+        ChipResources.getDrawableId(a, R.styleable.RecipientEditTextView_chipBackgroundPressed,
+            R.drawable.chip_background_selected);
+    drawableIds[ChipResources.DELETE] = ChipResources.getDrawableId(a,
+        R.styleable.RecipientEditTextView_chipDelete, R.drawable.chip_delete);
+    drawableIds[ChipResources.INVALID_BACKGROUND] =
+        ChipResources.getDrawableId(a, R.styleable.RecipientEditTextView_invalidChipBackground,
+            R.drawable.chip_background_invalid);
+    drawableIds[ChipResources.ICON] =
+        ChipResources.getDrawableId(a, R.styleable.RecipientEditTextView_chipIcon, 0);
+    mChipResources = ChipResources.obtain(resources, getContext().getTheme(), drawableIds,
+        R.drawable.ic_contact_picture);
+
+    mChipBackground = loadDrawable(a, R.styleable.RecipientEditTextView_chipBackground,
+        ChipResources.BACKGROUND);
+    mChipBackgroundPressed =
+        loadDrawable(a, R.styleable.RecipientEditTextView_chipBackgroundPressed,
+            ChipResources.BACKGROUND_PRESSED);
+    mChipDelete =
+        loadDrawable(a, R.styleable.RecipientEditTextView_chipDelete, ChipResources.DELETE);
     mChipPadding = a.getDimensionPixelSize(R.styleable.RecipientEditTextView_chipPadding, -1);
     mChipHeight = a.getDimensionPixelSize(R.styleable.RecipientEditTextView_chipHeight, -1);
     mChipFontSize = a.getDimensionPixelSize(R.styleable.RecipientEditTextView_chipFontSize, -1);
-    mInvalidChipBackground = a.getDrawable(R.styleable.RecipientEditTextView_invalidChipBackground);
-    mChipIcon = a.getDrawable(R.styleable.RecipientEditTextView_chipIcon);
+    mInvalidChipBackground =
+        loadDrawable(a, R.styleable.RecipientEditTextView_invalidChipBackground,
+            ChipResources.INVALID_BACKGROUND);
+    mChipIcon = loadDrawable(a, R.styleable.RecipientEditTextView_chipIcon, ChipResources.ICON);
     mChipIconBackgroundColor = a.getColor(R.styleable.RecipientEditTextView_chipIconBackgroundColor, -1);
     mChipAllowDuplicate = a.getBoolean(R.styleable.RecipientEditTextView_chipAllowDuplicate, false);
+    mPhoneQuery = a.getBoolean(R.styleable.RecipientEditTextView_phoneQuery, false);
 
     mLineSpacingExtra = resources.getDimension(R.dimen.line_spacing_extra);
 
@@ -613,8 +768,6 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
       mChipIconBackgroundColor = Color.parseColor("#000000");
     }
 
-    mDefaultContactPhoto = BitmapFactory.decodeResource(resources, R.drawable.ic_contact_picture);
-
     final TypedValue tv = new TypedValue();
     if (context.getTheme().resolveAttribute(android.R.attr.actionBarSize, tv, true)) {
       mActionBarHeight =
@@ -623,6 +776,15 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     a.recycle();
   }
 
+  /**
+   * @return the drawable of an attribute, sharing its state with fields of the same style when
+   * possible, or null if the attribute is not set
+   */
+  private Drawable loadDrawable(final TypedArray a, final int index, final int sharedIndex) {
+    final Drawable drawable = mChipResources.newDrawable(sharedIndex, getResources());
+    return drawable != null ? drawable : a.getDrawable(index);
+  }
+
   void setChipBackground(final Drawable chipBackground) {
     mChipBackground = chipBackground;
   }
@@ -641,11 +803,9 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
       final int oldh) {
     super.onSizeChanged(width, height, oldw, oldh);
     if (width != 0 && height != 0) {
-      if (mPendingChipsCount > 0) {
-        postHandlePendingChips();
-      } else {
-        checkChipWidths();
-      }
+      // Not while being laid out, replacing chips would lay the field out again.
+      mDeferredWork.schedule((mPendingChipsCount > 0 ? WORK_PENDING_CHIPS : WORK_CHIP_WIDTHS)
+          | (mPendingChipUpdate != null ? WORK_CHIP_LISTS : 0));
     }
     // Try to find the scroll view parent, if it exists.
     if (mScrollView == null && !mTriedGettingScrollView) {
@@ -660,9 +820,51 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     }
   }
 
-  private void postHandlePendingChips() {
-    mHandler.removeCallbacks(mHandlePendingChips);
-    mHandler.post(mHandlePendingChips);
+  /**
+   * Do the work deferred to the frame, in this order: chips for appended text, chips of the lists
+   * set or updated, in the order they were given, chips too wide for a new width, and adding back
+   * the text watcher last so it does not see the chips made before it.
+   */
+  private void doDeferredWork(final int work) {
+    if ((work & WORK_PENDING_CHIPS) != 0) {
+      handlePendingChips();
+    }
+    if ((work & WORK_CHIP_LISTS) != 0) {
+      addPendingChipLists();
+    }
+    if ((work & WORK_CHIP_WIDTHS) != 0 && mPendingChipsCount == 0) {
+      checkChipWidths();
+    }
+    if ((work & WORK_TEXT_WATCHER) != 0 && mTextWatcher == null) {
+      mTextWatcher = new RecipientTextWatcher();
+      addTextChangedListener(mTextWatcher);
+    }
+  }
+
+  private void addPendingChipLists() {
+    if (mPendingChipUpdate != null) {
+      if (getWidth() == 0) {
+        // Chips are sized to the field; onSizeChanged schedules the lists again.
+        return;
+      }
+      final List<String> chipsList = mPendingChipUpdate;
+      mPendingChipUpdate = null;
+      replaceChips(chipsList);
+    }
+    final ArrayList<List<String>> chipLists = new ArrayList<>(mPendingChipLists);
+    mPendingChipLists.clear();
+    for (final List<String> chipsList : chipLists) {
+      for (final String tag : chipsList) {
+        addRecipient(ChipItem.generateTokenizedEntry(tag), true);
+      }
+    }
+  }
+
+  /**
+   * Do the work deferred to the next frame now, e.g. in tests.
+   */
+  void flushDeferredWork() {
+    mDeferredWork.flushNow();
   }
 
   private void checkChipWidths() {
@@ -690,6 +892,8 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     if (mPendingChipsCount <= 0) {
       return;
     }
+    final long startTime = startTiming();
+    final int pendingChipsCount = mPendingChipsCount;
     synchronized (mPendingChips) {
       final Editable editable = getText();
       // Tokenize!
@@ -736,6 +940,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
       mPendingChipsCount = 0;
       mPendingChips.clear();
     }
+    reportTiming(ChipsMetrics.Operation.HANDLE_PENDING_CHIPS, startTime, pendingChipsCount);
   }
 
   int getViewWidth() {
@@ -784,7 +989,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
       // Don't recreate it.
       return;
     }
-    String token = editable.toString().substring(tokenStart, tokenEnd);
+    String token = editable.subSequence(tokenStart, tokenEnd).toString();
     final String trimmedToken = token.trim();
     final int commitCharIndex = trimmedToken.lastIndexOf(COMMIT_CHAR_COMMA);
     if (commitCharIndex != -1 && commitCharIndex == trimmedToken.length() - 1) {
@@ -821,17 +1026,17 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     if (TextUtils.isEmpty(token)) {
       return null;
     }
-    final Rfc822Token[] tokens = Rfc822Tokenizer.tokenize(token);
+    final AddressParser.Address parsed = AddressParser.parse(token);
     String display;
     boolean isValid = isValid(token);
-    if (isValid && tokens != null && tokens.length > 0) {
+    if (isValid && parsed != null) {
       // If we can get a name from tokenizing, then generate an entry from
       // this.
-      display = tokens[0].getName();
+      display = parsed.getName();
       if (!TextUtils.isEmpty(display)) {
-        return ChipItem.generateEntry(tokens[0].getAddress());
+        return ChipItem.generateEntry(parsed.getAddress());
       } else {
-        display = tokens[0].getAddress();
+        display = parsed.getAddress();
         if (!TextUtils.isEmpty(display)) {
           return ChipItem.generateTokenizedEntry(display);
         }
@@ -848,9 +1053,9 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
           // protect against the case of a validator with a null
           // domain,
           // which doesn't add a domain to the token
-          final Rfc822Token[] tokenized = Rfc822Tokenizer.tokenize(validatedToken);
-          if (tokenized.length > 0) {
-            validatedToken = tokenized[0].getAddress();
+          final AddressParser.Address fixed = AddressParser.parse(validatedToken);
+          if (fixed != null) {
+            validatedToken = fixed.getAddress();
             isValid = true;
           }
         } else {
@@ -874,11 +1079,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   }
 
   private static String tokenizeAddress(final String destination) {
-    final Rfc822Token[] tokens = Rfc822Tokenizer.tokenize(destination);
-    if (tokens != null && tokens.length > 0) {
-      return tokens[0].getAddress();
-    }
-    return destination;
+    return AddressParser.getAddress(destination);
   }
 
   @Override public void setTokenizer(final Tokenizer tokenizer) {
@@ -890,9 +1091,25 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     super.setTokenizer(mTokenizer);
   }
 
+  /**
+   * Editables made by the given factory also get the chip count kept up to date, see
+   * {@link ChipSpanWatcher}.
+   */
+  @Override public void setEditableFactory(final Editable.Factory factory) {
+    super.setEditableFactory(new ChipCountingFactory(factory));
+  }
+
+  /**
+   * Set the validator of typed addresses. Its answers are cached, see {@link CachingValidator};
+   * {@link #getValidator()} returns the caching wrapper.
+   */
   @Override public void setValidator(final Validator validator) {
-    mValidator = validator;
-    super.setValidator(validator);
+    if (validator == null || validator instanceof CachingValidator) {
+      mValidator = validator;
+    } else {
+      mValidator = new CachingValidator(validator);
+    }
+    super.setValidator(mValidator);
   }
 
   /**
@@ -1006,7 +1223,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
           tokenEnd++;
         }
       }
-      final String text = editable.toString().substring(start, tokenEnd).trim();
+      final String text = editable.subSequence(start, tokenEnd).toString().trim();
       clearComposingText();
       if (text != null && text.length() > 0 && !text.equals(" ")) {
         //final RecipientEntry entry = createTokenizedEntry(text);
@@ -1091,7 +1308,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     // and commit it.
     final Editable editable = getText();
     setSelection(end);
-    final String text = getText().toString().substring(start, end);
+    final String text = editable.subSequence(start, end).toString();
     if (!TextUtils.isEmpty(text)) {
       final ChipItem entry = ChipItem.generateTokenizedEntry(text);
 
@@ -1147,6 +1364,14 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
    * Instead of filtering on the entire contents of the edit box, this subclass method filters on the range from {@link Tokenizer#findTokenStart} to {@link #getSelectionEnd} if the length of that range meets or exceeds {@link #getThreshold} and makes sure that the range is not already a Chip.
    */
   @Override protected void performFiltering(final CharSequence text, final int keyCode) {
+    final long startTime = startTiming();
+    if (shouldFilter(text)) {
+      super.performFiltering(text, keyCode);
+    }
+    reportTiming(ChipsMetrics.Operation.PERFORM_FILTERING, startTime, text.length());
+  }
+
+  private boolean shouldFilter(final CharSequence text) {
     final boolean isCompletedToken = isCompletedToken(text);
     if (enoughToFilter() && !isCompletedToken) {
       final int end = getSelectionEnd();
@@ -1156,12 +1381,12 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
       final Spannable span = getSpannable();
       final DrawableRecipientChip[] chips = span.getSpans(start, end, DrawableRecipientChip.class);
       if (chips != null && chips.length > 0) {
-        return;
+        return false;
       }
     } else if (isCompletedToken) {
-      return;
+      return false;
     }
-    super.performFiltering(text, keyCode);
+    return true;
   }
 
   boolean isCompletedToken(final CharSequence text) {
@@ -1171,9 +1396,13 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     // Check to see if this is a completed token before filtering.
     final int end = text.length();
     final int start = mTokenizer.findTokenStart(text, end);
-    final String token = text.toString().substring(start, end).trim();
-    if (!TextUtils.isEmpty(token)) {
-      final char atEnd = token.charAt(token.length() - 1);
+    // The last char of the trimmed token, found without copying it.
+    int last = end - 1;
+    while (last >= start && text.charAt(last) <= ' ') {
+      last--;
+    }
+    if (last >= start) {
+      final char atEnd = text.charAt(last);
       return atEnd == COMMIT_CHAR_COMMA || atEnd == COMMIT_CHAR_SEMICOLON;
     }
     return false;
@@ -1221,8 +1450,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
         if (mCopyAddress == null) {
           final float x = event.getX();
           final float y = event.getY();
-          final int offset = putOffsetInRange(x, y);
-          final DrawableRecipientChip currentChip = findChip(offset);
+          final DrawableRecipientChip currentChip = findChipAt(x, y);
           if (currentChip != null) {
             if (action == MotionEvent.ACTION_UP) {
               if (mSelectedChip != null && mSelectedChip != currentChip) {
@@ -1233,7 +1461,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
                 commitDefault();
                 mSelectedChip = selectChip(currentChip);
               } else {
-                onClick(mSelectedChip, offset, x, y);
+                onClick(mSelectedChip, getOffsetForPosition(x, y), x, y);
               }
             }
             chipWasSelected = true;
@@ -1256,59 +1484,26 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     }
   }
 
-  private int putOffsetInRange(final float x, final float y) {
-    final int offset;
-    offset = getOffsetForPosition(x, y);
-    return putOffsetInRange(offset);
+  /**
+   * @return the chip at a point of the view, see {@link ChipHitIndex#findChip}
+   */
+  private DrawableRecipientChip findChipAt(final float x, final float y) {
+    return mChipHits.findChip(getLayout(), getText(), getLayoutX(x), getLayoutY(y));
   }
 
-  // the chips ui. This attempts to be "forgiving" to fat finger touches by favoring
-  // what comes before the finger.
-  private int putOffsetInRange(final int o) {
-    int offset = o;
-    final Editable text = getText();
-    final int length = text.length();
-    // Remove whitespace from end to find "real end"
-    int realLength = length;
-    for (int i = length - 1; i >= 0; i--)
-      if (text.charAt(i) == ' ') {
-        realLength--;
-      } else {
-        break;
-      }
-    // If the offset is beyond or at the end of the text,
-    // leave it alone.
-    if (offset >= realLength) {
-      return offset;
-    }
-    final Editable editable = getText();
-    while (offset >= 0 && findText(editable, offset) == -1 && findChip(offset) == null) {
-      // Keep walking backward!
-      offset--;
-    }
-    return offset;
+  private float getLayoutX(final float x) {
+    return x - getTotalPaddingLeft() + getScrollX();
   }
 
-  private static int findText(final Editable text, final int offset) {
-    if (text.charAt(offset) != ' ') {
-      return offset;
-    }
-    return -1;
+  private float getLayoutY(final float y) {
+    return y - getTotalPaddingTop() + getScrollY();
   }
 
   private DrawableRecipientChip findChip(final int offset) {
+    // An empty range finds the chips it is in or touches.
     final DrawableRecipientChip[] chips =
-        getSpannable().getSpans(0, getText().length(), DrawableRecipientChip.class);
-    // Find the chip that contains this offset.
-    for (int i = 0; i < chips.length; i++) {
-      final DrawableRecipientChip chip = chips[i];
-      final int start = getChipStart(chip);
-      final int end = getChipEnd(chip);
-      if (offset >= start && offset <= end) {
-        return chip;
-      }
-    }
-    return null;
+        getSpannable().getSpans(offset, offset, DrawableRecipientChip.class);
+    return chips.length > 0 ? chips[0] : null;
   }
 
   // Use this method to generate text to add to the list of addresses.
@@ -1322,10 +1517,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     if (address != null) {
       // Tokenize out the address in case the address already
       // contained the username as well.
-      final Rfc822Token[] tokenized = Rfc822Tokenizer.tokenize(address);
-      if (tokenized != null && tokenized.length > 0) {
-        address = tokenized[0].getAddress();
-      }
+      address = AddressParser.getAddress(address);
     }
     final Rfc822Token token = new Rfc822Token(display, address, null);
     trimmedDisplayText = token.toString().trim();
@@ -1386,14 +1578,21 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
 
   // check if entry chip already exists
   private boolean isChipAlreadyExist(ChipItem entry) {
-    boolean exist = false;
-    for (int i = 0; i < getAllChipsValue().size(); i++) {
-      if (entry.getTitle().equals(getAllChipsValue().get(i))) {
-        exist = true;
-        break;
+    final List<String> values = getAllChipsValue();
+    final String title = entry.getTitle();
+    if (mPhoneQuery && PhoneNumbers.isPhoneNumber(title)) {
+      // The same number written differently is still a duplicate.
+      final String number = PhoneNumbers.canonicalize(title, mDefaultCountryCode);
+      for (int i = 0; i < values.size(); i++) {
+        final String value = values.get(i);
+        if (PhoneNumbers.isPhoneNumber(value)
+            && number.equals(PhoneNumbers.canonicalize(value, mDefaultCountryCode))) {
+          return true;
+        }
       }
+      return false;
     }
-    return exist;
+    return values.contains(title);
   }
 
   private void submitItemAtPosition(final int position) {
@@ -1438,6 +1637,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   }
 
   DrawableRecipientChip[] getSortedRecipients() {
+    final long startTime = startTiming();
     final DrawableRecipientChip[] recips =
         getSpannable().getSpans(0, getText().length(), DrawableRecipientChip.class);
     final ArrayList<DrawableRecipientChip> recipientsList = new ArrayList<>(Arrays.asList(recips));
@@ -1456,6 +1656,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
         }
       }
     });
+    reportTiming(ChipsMetrics.Operation.SORT_RECIPIENTS, startTime, recips.length);
     return recipientsList.toArray(new DrawableRecipientChip[recipientsList.size()]);
   }
 
@@ -1548,18 +1749,12 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   }
 
   /**
-   * Return whether a touch event was inside the delete target of a selected chip. It is in the delete target if: 1)
-   * the x and y points of the event are within the delete assset. 2) the point tapped would have caused a cursor to
-   * appear right after the selected chip.
-   *
-   * @return boolean
+   * Return whether a touch event was inside the delete target of a selected chip, the square at
+   * its right end where {@link #createSelectedChip} draws the delete icon.
    */
-  private boolean isInDelete(final DrawableRecipientChip chip, final int offset, final float x,
-      final float y) {
-    // Figure out the bounds of this chip and whether or not
-    // the user clicked in the X portion.
-    // TODO: Should x and y be used, or removed?
-    return chip.isSelected() && offset == getChipEnd(chip);
+  private boolean isInDelete(final DrawableRecipientChip chip, final float x, final float y) {
+    return chip.isSelected() && mChipHits.isInDelete(getLayout(), getText(), chip, getLayoutX(x),
+        getLayoutY(y), (int) mChipHeight);
   }
 
   /**
@@ -1637,7 +1832,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   public void onClick(final DrawableRecipientChip chip, final int offset, final float x,
       final float y) {
     if (chip.isSelected()) {
-      if (isInDelete(chip, offset, x, y)) {
+      if (isInDelete(chip, x, y)) {
         removeChip(chip, true);
       } else {
         clearSelectedChip();
@@ -1695,7 +1890,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
         }
       }
     }
-    mHandler.post(mAddTextWatcher);
+    mDeferredWork.schedule(WORK_TEXT_WATCHER);
   }
 
   @Override public boolean onTextContextMenuItem(final int id) {
@@ -1716,6 +1911,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   }
 
   ArrayList<DrawableRecipientChip> handlePaste() {
+    final long startTime = startTiming();
     final String text = getText().toString();
     final int originalTokenStart = mTokenizer.findTokenStart(text, getSelectionEnd());
     final String lastAddress = text.substring(originalTokenStart);
@@ -1740,7 +1936,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
         int tokenEnd;
         DrawableRecipientChip createdChip;
         while (tokenStart < originalTokenStart) {
-          tokenEnd = movePastTerminators(mTokenizer.findTokenEnd(getText().toString(), tokenStart));
+          tokenEnd = movePastTerminators(mTokenizer.findTokenEnd(getText(), tokenStart));
           commitChip(tokenStart, tokenEnd, getText());
           createdChip = findChip(tokenStart);
           if (createdChip == null) {
@@ -1760,6 +1956,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
       commitChip(tokenStart, editable.length(), editable);
       created.add(findChip(tokenStart));
     }
+    reportTiming(ChipsMetrics.Operation.HANDLE_PASTE, startTime, created.size());
     return created;
   }
 
@@ -1767,13 +1964,14 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     if (tokenEnd >= length()) {
       return tokenEnd;
     }
-    final char atEnd = getText().toString().charAt(tokenEnd);
+    final Editable editable = getText();
+    final char atEnd = editable.charAt(tokenEnd);
     if (atEnd == COMMIT_CHAR_COMMA || atEnd == COMMIT_CHAR_SEMICOLON) {
       tokenEnd++;
     }
     // This token had not only an end token character, but also a space
     // separating it from the next token.
-    if (tokenEnd < length() && getText().toString().charAt(tokenEnd) == ' ') {
+    if (tokenEnd < editable.length() && editable.charAt(tokenEnd) == ' ') {
       tokenEnd++;
     }
     return tokenEnd;
@@ -1795,8 +1993,7 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     }
     final float x = event.getX();
     final float y = event.getY();
-    final int offset = putOffsetInRange(x, y);
-    final DrawableRecipientChip currentChip = findChip(offset);
+    final DrawableRecipientChip currentChip = findChipAt(x, y);
     if (currentChip != null) {
       showCopyDialog(currentChip.getEntry().getTitle());
     }
@@ -1876,9 +2073,25 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   }
 
   protected boolean isPhoneQuery() {
-    //return getAdapter() != null
-    //    && getAdapter().getQueryType() == BaseRecipientAdapter.QUERY_TYPE_PHONE;
-    return false;
+    return mPhoneQuery;
+  }
+
+  /**
+   * Take phone numbers instead of email addresses. Spaces then belong to the number being typed
+   * instead of committing it, and numbers are only committed as suggested or on a separator.
+   * Chips of the same number are considered duplicates however the number is written. Adapters
+   * that can match suggestions by their digits need their own phone mode set as well.
+   */
+  public void setPhoneQuery(final boolean phoneQuery) {
+    mPhoneQuery = phoneQuery;
+  }
+
+  /**
+   * Set the country code of numbers typed without one, e.g. "1", so "(425) 222-2342" and
+   * "+1 425 222 2342" are recognized as the same number.
+   */
+  public void setDefaultCountryCode(final String countryCode) {
+    mDefaultCountryCode = countryCode;
   }
 
   @Override public ListAdapter getAdapter() {
@@ -1891,8 +2104,250 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
     }
   }
 
+  /**
+   * Report how long the work of the field takes, or stop with null. Nothing is timed without
+   * metrics.
+   */
+  public void setMetrics(final ChipsMetrics metrics) {
+    mMetrics = metrics;
+  }
+
+  public ChipsMetrics getMetrics() {
+    return mMetrics;
+  }
+
+  /**
+   * Limit the bytes of chip bitmaps the field holds. Past it, the chips drawn least recently drop
+   * their bitmaps and render them again when next drawn, so the field's memory stays bounded
+   * however many chips it has. A budget smaller than the chips on screen makes them render on
+   * each draw.
+   */
+  public void setChipBitmapBudget(final long bytes) {
+    mChipBitmaps.setBudget(bytes);
+  }
+
+  public long getChipBitmapBudget() {
+    return mChipBitmaps.getBudget();
+  }
+
+  /**
+   * Drop the bitmaps of the chips and the default photo they are drawn with. Chips keep their
+   * entries and place in the text, and render again when drawn.
+   */
+  private void releaseChipPixels() {
+    mChipBitmaps.releaseAll();
+    mChipResources.releasePhoto();
+  }
+
+  private Bitmap getDefaultContactPhoto() {
+    return mChipResources.getPhoto(getResources());
+  }
+
+  /**
+   * @return the bytes of the bitmaps held by the chips in the field
+   */
+  public long getChipBitmapBytes() {
+    return mChipBitmaps.getBytes();
+  }
+
+  /**
+   * @return the start time of an operation to report, or 0 if there are no metrics to report it to
+   */
+  private long startTiming() {
+    return mMetrics != null ? System.nanoTime() : 0;
+  }
+
+  private void reportTiming(final ChipsMetrics.Operation operation, final long startTime,
+      final long size) {
+    // Metrics set in the middle of the operation get the next one.
+    if (startTime != 0 && mMetrics != null) {
+      mMetrics.onOperation(operation, System.nanoTime() - startTime, size);
+    }
+  }
+
+  /**
+   * @return the number of chips in the field, without looking through the text
+   */
+  int getChipCount() {
+    if (mChipWatcher == null) {
+      return getSpannable().getSpans(0, length(), DrawableRecipientChip.class).length;
+    }
+    return mChipWatcher.mCount;
+  }
+
+  /**
+   * Keeps count of the chips of an editable as they are added and removed, so the watcher does
+   * not have to collect every chip span of the field on each keystroke, tells the bitmap budget
+   * which chips are in the text, and the hit index where the text or its chips changed. Like
+   * TextView's own watcher it covers the whole text and is not copied along with it.
+   */
+  private static final class ChipSpanWatcher implements SpanWatcher, TextWatcher, NoCopySpan {
+    private final ChipBitmapBudget mBitmaps;
+    private final ChipHitIndex mHits;
+    int mCount;
+
+    private ChipSpanWatcher(final ChipBitmapBudget bitmaps, final ChipHitIndex hits) {
+      mBitmaps = bitmaps;
+      mHits = hits;
+    }
+
+    static ChipSpanWatcher attach(final Spannable text, final ChipBitmapBudget bitmaps,
+        final ChipHitIndex hits) {
+      final ChipSpanWatcher watcher = new ChipSpanWatcher(bitmaps, hits);
+      hits.invalidateAll();
+      final DrawableRecipientChip[] chips =
+          text.getSpans(0, text.length(), DrawableRecipientChip.class);
+      watcher.mCount = chips.length;
+      bitmaps.releaseAll();
+      for (final DrawableRecipientChip chip : chips) {
+        final ChipBitmapDrawable drawable = getBitmapDrawable(chip);
+        if (drawable != null) {
+          bitmaps.onAdded(drawable);
+        }
+      }
+      text.setSpan(watcher, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+      return watcher;
+    }
+
+    @Override public void onSpanAdded(final Spannable text, final Object what, final int start,
+        final int end) {
+      if (what instanceof DrawableRecipientChip) {
+        mCount++;
+        mHits.invalidate(start);
+        final ChipBitmapDrawable drawable = getBitmapDrawable(what);
+        if (drawable != null) {
+          mBitmaps.onAdded(drawable);
+        }
+      }
+    }
+
+    @Override public void onSpanRemoved(final Spannable text, final Object what, final int start,
+        final int end) {
+      if (what instanceof DrawableRecipientChip) {
+        mCount--;
+        mHits.invalidate(start);
+        final ChipBitmapDrawable drawable = getBitmapDrawable(what);
+        if (drawable != null) {
+          mBitmaps.onRemoved(drawable);
+        }
+      }
+    }
+
+    @Override public void onSpanChanged(final Spannable text, final Object what, final int ostart,
+        final int oend, final int nstart, final int nend) {
+      if (what instanceof DrawableRecipientChip) {
+        mHits.invalidate(Math.min(ostart, nstart));
+      }
+    }
+
+    @Override public void beforeTextChanged(final CharSequence s, final int start,
+        final int count, final int after) {
+    }
+
+    @Override public void onTextChanged(final CharSequence s, final int start, final int before,
+        final int count) {
+      mHits.invalidate(start);
+    }
+
+    @Override public void afterTextChanged(final Editable s) {
+    }
+
+    private static ChipBitmapDrawable getBitmapDrawable(final Object chip) {
+      if (chip instanceof VisibleRecipientChip) {
+        final Drawable drawable = ((VisibleRecipientChip) chip).getDrawable();
+        if (drawable instanceof ChipBitmapDrawable) {
+          return (ChipBitmapDrawable) drawable;
+        }
+      }
+      return null;
+    }
+  }
+
+  private final class ChipCountingFactory extends Editable.Factory {
+    private final Editable.Factory mFactory;
+
+    ChipCountingFactory(final Editable.Factory factory) {
+      mFactory = factory;
+    }
+
+    @Override public Editable newEditable(final CharSequence source) {
+      final Editable editable = mFactory.newEditable(source);
+      mChipWatcher = ChipSpanWatcher.attach(editable, mChipBitmaps, mChipHits);
+      return editable;
+    }
+  }
+
   private class RecipientTextWatcher implements TextWatcher {
+    // Changes made during a batch edit: whether there were any, the start of the first changed
+    // char, how many chars follow the last changed one, and the change of length. Edits only move
+    // the text after them, so counting the end from the end of the text keeps it valid.
+    private boolean mBatchChanged;
+    private int mBatchStart;
+    private int mBatchCharsAfter;
+    private int mBatchLengthChange;
+    // Time spent on the change in onTextChanged, reported with afterTextChanged, and its size.
+    private long mChangeNanos;
+    private int mChangeSize;
+
     @Override public void afterTextChanged(final Editable s) {
+      if (mBatchEditDepth > 0) {
+        return;
+      }
+      final long startTime = startTiming();
+      handleAfterTextChanged(s);
+      reportChange(startTime);
+    }
+
+    @Override public void onTextChanged(final CharSequence s, final int start, final int before,
+        final int count) {
+      if (mBatchEditDepth > 0) {
+        final int charsAfter = s.length() - start - count;
+        if (mBatchChanged) {
+          mBatchStart = Math.min(mBatchStart, start);
+          mBatchCharsAfter = Math.min(mBatchCharsAfter, charsAfter);
+          mBatchLengthChange += count - before;
+        } else {
+          mBatchChanged = true;
+          mBatchStart = start;
+          mBatchCharsAfter = charsAfter;
+          mBatchLengthChange = count - before;
+        }
+        return;
+      }
+      final long startTime = startTiming();
+      handleTextChanged(s, before, count);
+      mChangeNanos = startTime != 0 ? System.nanoTime() - startTime : 0;
+      mChangeSize = count;
+    }
+
+    /**
+     * Handle the changes of the batch edit that just ended, as one replacement of the range that
+     * covers all of them.
+     */
+    void handleBatchEdit() {
+      if (!mBatchChanged) {
+        return;
+      }
+      mBatchChanged = false;
+      final long startTime = startTiming();
+      final Editable text = getText();
+      final int count = text.length() - mBatchStart - mBatchCharsAfter;
+      handleTextChanged(text, count - mBatchLengthChange, count);
+      mChangeNanos = 0;
+      mChangeSize = count;
+      handleAfterTextChanged(text);
+      reportChange(startTime);
+    }
+
+    private void reportChange(final long startTime) {
+      if (startTime != 0) {
+        reportTiming(ChipsMetrics.Operation.TEXT_CHANGE, startTime - mChangeNanos, mChangeSize);
+      }
+      mChangeNanos = 0;
+      mChangeSize = 0;
+    }
+
+    private void handleAfterTextChanged(final Editable s) {
       // If the text has been set to null or empty, make sure we remove
       // all the spans we applied.
       if (TextUtils.isEmpty(s)) {
@@ -1942,10 +2397,9 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
           if (!isPhoneQuery()) {
             // Check if this is a valid email address. If it is,
             // commit it.
-            final String text = getText().toString();
-            final int tokenStart = mTokenizer.findTokenStart(text, getSelectionEnd());
+            final int tokenStart = mTokenizer.findTokenStart(s, getSelectionEnd());
             final String sub =
-                text.substring(tokenStart, mTokenizer.findTokenEnd(text, tokenStart));
+                s.subSequence(tokenStart, mTokenizer.findTokenEnd(s, tokenStart)).toString();
             if (!TextUtils.isEmpty(sub) && mValidator != null && mValidator.isValid(sub)) {
               commitByCharacter();
             }
@@ -1954,15 +2408,12 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
       }
     }
 
-    @Override public void onTextChanged(final CharSequence s, final int start, final int before,
-        final int count) {
+    private void handleTextChanged(final CharSequence s, final int before, final int count) {
       // The user deleted some text OR some text was replaced; check to
       // see if the insertion point is on a space
       // following a chip.
       if (count != before) {
-        final DrawableRecipientChip[] chips =
-            getSpannable().getSpans(0, getText().length(), DrawableRecipientChip.class);
-        final int chipsCount = chips.length;
+        final int chipsCount = getChipCount();
         if (mPreviousChipsCount > chipsCount && mChipListener != null) {
           mChipListener.onDataChanged();
         }
@@ -2034,14 +2485,128 @@ public class RecipientEditTextView extends AppCompatMultiAutoCompleteTextView
   }
 
   public void setChipsList(final List<String> chipsList) {
-    post(new Runnable() {
-      @Override public void run() {
-        for (final String tag : chipsList) {
-          ChipItem chipItem = ChipItem.generateTokenizedEntry(tag);
-          addRecipient(chipItem, true);
+    mPendingChipLists.add(chipsList);
+    mDeferredWork.schedule(WORK_CHIP_LISTS);
+  }
+
+  /**
+   * Show the chips of a list in place of the current ones, keeping the chips of entries that stay
+   * along with their bitmaps. Chips the two lists share at the start and at the end are left
+   * alone, and the range between them is replaced in one edit, reusing the chips moved within it.
+   * Meant for rebinding recycled rows, where removing and adding every chip would render them all
+   * again.
+   */
+  public void updateChipsList(final List<String> chipsList) {
+    // Lists set before would be replaced by this one, so they are not added at all.
+    mPendingChipLists.clear();
+    mPendingChipUpdate = null;
+    if (getWidth() == 0) {
+      // Chips are sized to the field, wait for it to be laid out; lists set meanwhile are added
+      // after this one.
+      mPendingChipUpdate = chipsList;
+      mDeferredWork.schedule(WORK_CHIP_LISTS);
+      return;
+    }
+    replaceChips(chipsList);
+  }
+
+  private void replaceChips(final List<String> chipsList) {
+    final ChipItem[] entries = new ChipItem[chipsList.size()];
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = ChipItem.generateTokenizedEntry(chipsList.get(i));
+    }
+    if (chipsPending()) {
+      // Some chips are not in the text yet, or hidden while shrunk.
+      removeAllRecipients(true);
+      for (final ChipItem entry : entries) {
+        addRecipient(entry, true);
+      }
+      return;
+    }
+    final DrawableRecipientChip[] chips = getSortedRecipients();
+    int prefix = 0;
+    while (prefix < chips.length && prefix < entries.length
+        && hasTitle(chips[prefix], entries[prefix])) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < chips.length - prefix && suffix < entries.length - prefix
+        && hasTitle(chips[chips.length - 1 - suffix], entries[entries.length - 1 - suffix])) {
+      suffix++;
+    }
+    final int oldEnd = chips.length - suffix;
+    final int newEnd = entries.length - suffix;
+    if (prefix == oldEnd && prefix == newEnd) {
+      return;
+    }
+    final Editable text = getText();
+    final int start;
+    final int end;
+    if (prefix < oldEnd) {
+      start = getChipStart(chips[prefix]);
+      end = getChipTextEnd(chips[oldEnd - 1]);
+    } else if (prefix < chips.length) {
+      start = getChipStart(chips[prefix]);
+      end = start;
+    } else {
+      // After the last chip, before any text being typed.
+      start = chips.length > 0 ? getChipTextEnd(chips[chips.length - 1]) : 0;
+      end = start;
+    }
+    // The chips being replaced, to move those that stay.
+    final HashMap<String, ArrayList<DrawableRecipientChip>> replaced = new HashMap<>();
+    for (int i = prefix; i < oldEnd; i++) {
+      final String title = chips[i].getEntry().getTitle();
+      ArrayList<DrawableRecipientChip> sameTitle = replaced.get(title);
+      if (sameTitle == null) {
+        sameTitle = new ArrayList<>(1);
+        replaced.put(title, sameTitle);
+      }
+      sameTitle.add(chips[i]);
+    }
+    final HashSet<String> titles = new HashSet<>();
+    if (!mChipAllowDuplicate) {
+      for (int i = 0; i < chips.length; i++) {
+        if (i < prefix || i >= oldEnd) {
+          titles.add(chips[i].getEntry().getTitle());
         }
       }
-    });
+    }
+    final SpannableStringBuilder replacement = new SpannableStringBuilder();
+    for (int i = prefix; i < newEnd; i++) {
+      final String title = entries[i].getTitle();
+      if (!mChipAllowDuplicate && !titles.add(title)) {
+        continue;
+      }
+      final ArrayList<DrawableRecipientChip> sameTitle = replaced.get(title);
+      if (sameTitle != null && !sameTitle.isEmpty()) {
+        // Copying the text copies the chip span too.
+        final DrawableRecipientChip chip = sameTitle.remove(sameTitle.size() - 1);
+        replacement.append(text.subSequence(getChipStart(chip), getChipTextEnd(chip)));
+      } else {
+        final CharSequence chipText = createChip(entries[i], false);
+        if (chipText != null) {
+          replacement.append(chipText);
+        }
+      }
+    }
+    text.replace(start, end, replacement);
+  }
+
+  private static boolean hasTitle(final DrawableRecipientChip chip, final ChipItem entry) {
+    return TextUtils.equals(chip.getEntry().getTitle(), entry.getTitle());
+  }
+
+  /**
+   * @return the end of the text of a chip, including the spaces after it
+   */
+  private int getChipTextEnd(final DrawableRecipientChip chip) {
+    final Editable text = getText();
+    int end = getChipEnd(chip);
+    while (end < text.length() && text.charAt(end) == ' ') {
+      end++;
+    }
+    return end;
   }
 
   public void removeAllRecipients(final boolean alsoNotifyAboutDataChanges) {
@@ -0,0 +1,452 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.support.v4.view.ViewCompat;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.AttributeSet;
+import android.view.Gravity;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+import android.widget.OverScroller;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Recipient field for thousands of chips. {@link RecipientEditTextView} keeps its chips as spans
+ * of one text, which is broken into lines and drawn as a whole; here the chips are kept as a
+ * list, broken into rows by their measured widths, and only the rows in view are drawn, straight
+ * onto the canvas with no bitmaps. Chips are typed in a {@link RecipientEditTextView} after the
+ * last chip, see {@link #getInput()}, with its usual tokenizing, validation and suggestions, and
+ * move into the list once committed. The field scrolls within its own height, so give it a
+ * bounded one.
+ */
+public class RecipientFlowView extends ViewGroup {
+  private final ChipPainter mPainter;
+  private final RecipientEditTextView mInput;
+  private final ArrayList<ChipItem> mChips = new ArrayList<>();
+  private final HashSet<String> mTitles = new HashSet<>();
+  // Width of the title of each chip, measured once when it is added.
+  private float[] mTextWidths = new float[16];
+  // Rows for mLaidOutWidth: row r holds the chips from mRowStarts[r] to mRowStarts[r + 1].
+  private int mLaidOutWidth = -1;
+  private int[] mRowStarts = new int[16];
+  private int mRowCount;
+  private int mInputLeft;
+  private int mInputRow;
+  private final int mMinInputWidth;
+  // Chips looked at to break rows, and chips drawn, so far; tests check they stay with what
+  // changed and what is in view.
+  private int mBrokenChips;
+  private int mDrawnChips;
+  private RecipientEditTextView.IChipListener mChipListener;
+  // Scrolling.
+  private final OverScroller mScroller;
+  private final int mTouchSlop;
+  private final int mMinFlingVelocity;
+  private final int mMaxFlingVelocity;
+  private VelocityTracker mVelocityTracker;
+  private boolean mDragging;
+  private float mLastY;
+  private final Runnable mTakeInputChips = new Runnable() {
+    @Override public void run() {
+      takeInputChips();
+    }
+  };
+
+  public RecipientFlowView(final Context context) {
+    this(context, null);
+  }
+
+  public RecipientFlowView(final Context context, final AttributeSet attrs) {
+    super(context, attrs);
+    setWillNotDraw(false);
+    mPainter = new ChipPainter(context, attrs);
+    mScroller = new OverScroller(context);
+    final ViewConfiguration configuration = ViewConfiguration.get(context);
+    mTouchSlop = configuration.getScaledTouchSlop();
+    mMinFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+    mMaxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+    mMinInputWidth = mPainter.getChipHeight() * 3;
+    mInput = new RecipientEditTextView(context, null);
+    mInput.setBackgroundDrawable(null);
+    mInput.setPadding(0, 0, 0, 0);
+    mInput.setGravity(Gravity.CENTER_VERTICAL);
+    mInput.addTextChangedListener(new TextWatcher() {
+      @Override public void beforeTextChanged(final CharSequence s, final int start,
+          final int count, final int after) {
+      }
+
+      @Override public void onTextChanged(final CharSequence s, final int start, final int before,
+          final int count) {
+      }
+
+      @Override public void afterTextChanged(final Editable s) {
+        // Not while the input is still handling the change.
+        removeCallbacks(mTakeInputChips);
+        post(mTakeInputChips);
+      }
+    });
+    mInput.setOnKeyListener(new OnKeyListener() {
+      @Override public boolean onKey(final View view, final int keyCode, final KeyEvent event) {
+        // Backspace at the start of the input deletes the last chip.
+        if (keyCode == KeyEvent.KEYCODE_DEL && event.getAction() == KeyEvent.ACTION_DOWN
+            && mInput.getSelectionEnd() == 0 && !mChips.isEmpty()) {
+          removeRecipient(mChips.size() - 1);
+          return true;
+        }
+        return false;
+      }
+    });
+    addView(mInput);
+  }
+
+  /**
+   * @return the field chips are typed in, to set its adapter, validator or tokenizer
+   */
+  public RecipientEditTextView getInput() {
+    return mInput;
+  }
+
+  public void setChipListener(final RecipientEditTextView.IChipListener chipListener) {
+    mChipListener = chipListener;
+  }
+
+  /**
+   * Show the chips of a list in place of the current ones.
+   */
+  public void setChipsList(final List<String> chipsList) {
+    final boolean hadChips = !mChips.isEmpty();
+    mChips.clear();
+    mTitles.clear();
+    final ArrayList<ChipItem> entries = new ArrayList<>(chipsList.size());
+    for (final String chip : chipsList) {
+      entries.add(ChipItem.generateTokenizedEntry(chip));
+    }
+    addRecipients(entries);
+    // Added chips were told of already.
+    if (hadChips && mChips.isEmpty() && mChipListener != null) {
+      mChipListener.onDataChanged();
+    }
+  }
+
+  public void addRecipient(final ChipItem entry) {
+    addRecipients(Arrays.asList(entry));
+  }
+
+  /**
+   * Add chips after the last one, leaving out those already shown unless duplicates are allowed
+   * on the input.
+   */
+  public void addRecipients(final List<ChipItem> entries) {
+    final int first = mChips.size();
+    for (final ChipItem entry : entries) {
+      if (entry != null && (mTitles.add(entry.getTitle()) || mInput.ismChipAllowDuplicate())) {
+        mChips.add(entry);
+      }
+    }
+    if (mTextWidths.length < mChips.size()) {
+      mTextWidths = Arrays.copyOf(mTextWidths, Math.max(mChips.size(), mTextWidths.length * 2));
+    }
+    for (int i = first; i < mChips.size(); i++) {
+      mTextWidths[i] = mPainter.measureText(mChips.get(i).getTitle());
+    }
+    onChipsChanged(first);
+    if (mChips.size() > first && mChipListener != null) {
+      mChipListener.onDataChanged();
+    }
+  }
+
+  public void removeRecipient(final int index) {
+    // Titles only keep duplicates out while they are not allowed, and then each is shown once.
+    mTitles.remove(mChips.remove(index).getTitle());
+    System.arraycopy(mTextWidths, index + 1, mTextWidths, index, mChips.size() - index);
+    onChipsChanged(index);
+    if (mChipListener != null) {
+      mChipListener.onDataChanged();
+    }
+  }
+
+  public int getChipCount() {
+    return mChips.size();
+  }
+
+  int getBrokenChipCount() {
+    return mBrokenChips;
+  }
+
+  int getDrawnChipCount() {
+    return mDrawnChips;
+  }
+
+  public List<String> getAllChipsValue() {
+    final List<String> result = new ArrayList<>(mChips.size());
+    for (final ChipItem chip : mChips) {
+      result.add(chip.getTitle());
+    }
+    // Chips committed in the input and not moved yet.
+    result.addAll(mInput.getAllChipsValue());
+    return result;
+  }
+
+  /**
+   * Move the chips committed in the input to the list; the listener hears of them from
+   * {@link #addRecipients}.
+   */
+  private void takeInputChips() {
+    final DrawableRecipientChip[] chips = mInput.getSortedRecipients();
+    if (chips.length == 0) {
+      return;
+    }
+    final ArrayList<ChipItem> entries = new ArrayList<>(chips.length);
+    for (final DrawableRecipientChip chip : chips) {
+      entries.add(chip.getEntry());
+    }
+    mInput.removeAllRecipients(true);
+    addRecipients(entries);
+    // Keep typing in view.
+    scrollTo(0, getMaxScrollY());
+  }
+
+  private void onChipsChanged(final int firstChanged) {
+    if (mLaidOutWidth >= 0) {
+      breakRows(getRowOf(firstChanged));
+    }
+    requestLayout();
+    invalidate();
+  }
+
+  /**
+   * @return the row holding a chip, or the row after the last chip if there is none
+   */
+  private int getRowOf(final int chip) {
+    int low = 0;
+    int high = mRowCount - 1;
+    while (low < high) {
+      final int middle = (low + high + 1) >>> 1;
+      if (mRowStarts[middle] <= chip) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return Math.max(low, 0);
+  }
+
+  /**
+   * Break the chips into rows of the laid out width, from the row before a changed one on, since
+   * it may take chips from it; rows before that stay.
+   */
+  private void breakRows(final int changedRow) {
+    final int width = mLaidOutWidth;
+    final int gap = mPainter.getGap();
+    final int count = mChips.size();
+    final int row = Math.min(Math.max(changedRow - 1, 0), Math.max(mRowCount - 1, 0));
+    int chip = mRowCount > 0 ? mRowStarts[row] : 0;
+    mRowCount = row;
+    int x = 0;
+    mBrokenChips += count - chip;
+    for (; chip < count; chip++) {
+      final int chipWidth = getShownWidth(chip);
+      if (x == 0 || x + chipWidth > width) {
+        startRow(chip);
+        x = 0;
+      }
+      x += chipWidth + gap;
+    }
+    ensureRowCapacity(mRowCount + 1);
+    mRowStarts[mRowCount] = count;
+    if (mRowCount == 0) {
+      mInputRow = 0;
+      mInputLeft = 0;
+      return;
+    }
+    // The input goes after the last chip if it has room, else on a row of its own. The last row
+    // may be one kept from before, so where it ends is measured again.
+    int end = 0;
+    mBrokenChips += count - mRowStarts[mRowCount - 1];
+    for (chip = mRowStarts[mRowCount - 1]; chip < count; chip++) {
+      end += getShownWidth(chip) + gap;
+    }
+    if (width - end >= mMinInputWidth) {
+      mInputRow = mRowCount - 1;
+      mInputLeft = end;
+    } else {
+      mInputRow = mRowCount;
+      mInputLeft = 0;
+    }
+  }
+
+  /**
+   * @return the width a chip is drawn with, at most the laid out width
+   */
+  private int getShownWidth(final int chip) {
+    return Math.min(mPainter.getChipWidth(mTextWidths[chip]), mLaidOutWidth);
+  }
+
+  private void startRow(final int chip) {
+    // With room for the end of the last row.
+    ensureRowCapacity(mRowCount + 2);
+    mRowStarts[mRowCount++] = chip;
+  }
+
+  private void ensureRowCapacity(final int capacity) {
+    if (mRowStarts.length < capacity) {
+      mRowStarts = Arrays.copyOf(mRowStarts, Math.max(capacity, mRowStarts.length * 2));
+    }
+  }
+
+  private int getRowPitch() {
+    return mPainter.getChipHeight() + mPainter.getLineSpacing();
+  }
+
+  private int getContentHeight() {
+    return (mInputRow + 1) * getRowPitch() - mPainter.getLineSpacing();
+  }
+
+  private int getMaxScrollY() {
+    final int viewport = getHeight() - getPaddingTop() - getPaddingBottom();
+    return Math.max(0, getContentHeight() - viewport);
+  }
+
+  @Override protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
+    final int width = Math.max(MeasureSpec.getSize(widthMeasureSpec), getSuggestedMinimumWidth());
+    final int contentWidth = width - getPaddingLeft() - getPaddingRight();
+    if (contentWidth != mLaidOutWidth) {
+      mLaidOutWidth = contentWidth;
+      mRowCount = 0;
+      breakRows(0);
+    }
+    final int inputWidth = Math.max(0, contentWidth - mInputLeft);
+    mInput.measure(MeasureSpec.makeMeasureSpec(inputWidth, MeasureSpec.EXACTLY),
+        MeasureSpec.makeMeasureSpec(mPainter.getChipHeight(), MeasureSpec.EXACTLY));
+    final int height = getContentHeight() + getPaddingTop() + getPaddingBottom();
+    setMeasuredDimension(width,
+        resolveSize(Math.max(height, getSuggestedMinimumHeight()), heightMeasureSpec));
+  }
+
+  @Override protected void onLayout(final boolean changed, final int l, final int t, final int r,
+      final int b) {
+    final int left = getPaddingLeft() + mInputLeft;
+    final int top = getPaddingTop() + mInputRow * getRowPitch();
+    mInput.layout(left, top, left + mInput.getMeasuredWidth(), top + mInput.getMeasuredHeight());
+    if (getScrollY() > getMaxScrollY()) {
+      scrollTo(0, getMaxScrollY());
+    }
+  }
+
+  @Override protected void onDraw(final Canvas canvas) {
+    // The canvas is scrolled; draw the rows between the top and the bottom of the view.
+    final int pitch = getRowPitch();
+    final int left = getPaddingLeft();
+    final int top = getPaddingTop();
+    final int firstRow = Math.max(0, (getScrollY() - top) / pitch);
+    final int lastRow = Math.min(mRowCount - 1, (getScrollY() + getHeight() - top) / pitch);
+    final int gap = mPainter.getGap();
+    for (int row = firstRow; row <= lastRow; row++) {
+      int x = left;
+      final int y = top + row * pitch;
+      mDrawnChips += mRowStarts[row + 1] - mRowStarts[row];
+      for (int chip = mRowStarts[row]; chip < mRowStarts[row + 1]; chip++) {
+        CharSequence title = mChips.get(chip).getTitle();
+        int chipWidth = mPainter.getChipWidth(mTextWidths[chip]);
+        if (chipWidth > mLaidOutWidth) {
+          title = mPainter.ellipsize(title, mPainter.getMaxTextWidth(mLaidOutWidth));
+          chipWidth = mLaidOutWidth;
+        }
+        mPainter.draw(canvas, title, x, y, chipWidth);
+        x += chipWidth + gap;
+      }
+    }
+  }
+
+  @Override protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    mPainter.acquire();
+  }
+
+  @Override protected void onDetachedFromWindow() {
+    mPainter.release();
+    removeCallbacks(mTakeInputChips);
+    super.onDetachedFromWindow();
+  }
+
+  @Override public boolean onInterceptTouchEvent(final MotionEvent event) {
+    // Take drags that start on the input, leave it taps.
+    switch (event.getActionMasked()) {
+      case MotionEvent.ACTION_DOWN:
+        mLastY = event.getY();
+        mDragging = !mScroller.isFinished();
+        mScroller.abortAnimation();
+        break;
+      case MotionEvent.ACTION_MOVE:
+        if (Math.abs(event.getY() - mLastY) > mTouchSlop) {
+          mDragging = true;
+          mLastY = event.getY();
+        }
+        break;
+      case MotionEvent.ACTION_UP:
+      case MotionEvent.ACTION_CANCEL:
+        mDragging = false;
+        break;
+    }
+    return mDragging;
+  }
+
+  @Override public boolean onTouchEvent(final MotionEvent event) {
+    if (mVelocityTracker == null) {
+      mVelocityTracker = VelocityTracker.obtain();
+    }
+    mVelocityTracker.addMovement(event);
+    switch (event.getActionMasked()) {
+      case MotionEvent.ACTION_DOWN:
+        mScroller.abortAnimation();
+        mLastY = event.getY();
+        break;
+      case MotionEvent.ACTION_MOVE:
+        final float dy = mLastY - event.getY();
+        if (!mDragging && Math.abs(dy) > mTouchSlop) {
+          mDragging = true;
+          getParent().requestDisallowInterceptTouchEvent(true);
+        }
+        if (mDragging) {
+          scrollTo(0, Math.max(0, Math.min(getMaxScrollY(), getScrollY() + (int) dy)));
+          mLastY = event.getY();
+        }
+        break;
+      case MotionEvent.ACTION_UP:
+        if (mDragging) {
+          mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+          final int velocity = (int) mVelocityTracker.getYVelocity();
+          if (Math.abs(velocity) > mMinFlingVelocity) {
+            mScroller.fling(0, getScrollY(), 0, -velocity, 0, 0, 0, getMaxScrollY());
+            ViewCompat.postInvalidateOnAnimation(this);
+          }
+        } else {
+          // A tap between the chips goes to the input.
+          mInput.requestFocus();
+        }
+        // Fall through.
+      case MotionEvent.ACTION_CANCEL:
+        mDragging = false;
+        mVelocityTracker.recycle();
+        mVelocityTracker = null;
+        break;
+    }
+    return true;
+  }
+
+  @Override public void computeScroll() {
+    if (mScroller.computeScrollOffset()) {
+      scrollTo(0, mScroller.getCurrY());
+      ViewCompat.postInvalidateOnAnimation(this);
+    }
+  }
+}
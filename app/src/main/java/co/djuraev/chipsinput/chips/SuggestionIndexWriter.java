@@ -0,0 +1,194 @@
+package co.djuraev.chipsinput.chips;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Builds the suggestion index file read by {@link MappedSuggestionIndex}.
+ *
+ * <p>All values are big endian:
+ * <pre>
+ * header        int magic, int version, int rowCount, int termCount,
+ *               int titleChars, int keyChars, long reserved
+ * ids           long[rowCount]
+ * titleOffsets  int[rowCount + 1]
+ * keyOffsets    int[rowCount + 1]
+ * termRows      int[termCount]
+ * termStarts    int[termCount]
+ * titles        char[titleChars]
+ * keys          char[keyChars]
+ * </pre>
+ * Rows keep the order they were written in. A term is the part of a row's normalized key from the
+ * start of one of its words to the end of the key; terms are sorted, so the rows having a word
+ * starting with a prefix are found by binary search.
+ */
+public class SuggestionIndexWriter {
+
+  private SuggestionIndexWriter() {
+  }
+
+  /**
+   * Write the index of the given entries. The file is replaced only once it is complete.
+   */
+  public static void write(final Iterator<ChipItem> items, final File file) throws IOException {
+    final CompactSuggestionStore.Builder builder = new CompactSuggestionStore.Builder();
+    while (items.hasNext()) {
+      final ChipItem item = items.next();
+      builder.add(item.getId(), item.getTitle());
+    }
+    write(builder.build(), file);
+  }
+
+  static void write(final CompactSuggestionStore store, final File file) throws IOException {
+    final int rows = store.size();
+    final char[] keys = store.getKeyChars();
+
+    // Collect the start of every word of every key.
+    int[] termRows = new int[rows];
+    int[] termStarts = new int[rows];
+    int termCount = 0;
+    for (int row = 0; row < rows; row++) {
+      final int end = store.getKeyEnd(row);
+      for (int i = store.getKeyStart(row); i < end; i++) {
+        if (!isWordStart(keys, store.getKeyStart(row), i)) {
+          continue;
+        }
+        if (termCount == termRows.length) {
+          termRows = Arrays.copyOf(termRows, termCount * 2 + 1);
+          termStarts = Arrays.copyOf(termStarts, termCount * 2 + 1);
+        }
+        termRows[termCount] = row;
+        termStarts[termCount] = i;
+        termCount++;
+      }
+    }
+    final int[] termEnds = new int[termCount];
+    for (int i = 0; i < termCount; i++) {
+      termEnds[i] = store.getKeyEnd(termRows[i]);
+    }
+    final int[] order = sortTerms(keys, termStarts, termEnds, termCount);
+
+    final File tmp = new File(file.getPath() + ".tmp");
+    boolean written = false;
+    try {
+      writeFile(store, tmp, termCount, termRows, termStarts, order);
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Unable to replace " + file);
+      }
+      written = true;
+    } finally {
+      // Leave no partial file behind.
+      if (!written) {
+        tmp.delete();
+      }
+    }
+  }
+
+  private static void writeFile(final CompactSuggestionStore store, final File tmp,
+      final int termCount, final int[] termRows, final int[] termStarts, final int[] order)
+      throws IOException {
+    final int rows = store.size();
+    final char[] keys = store.getKeyChars();
+    final DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+    try {
+      final int titleChars = rows == 0 ? 0 : store.getTitleStart(rows - 1)
+          + store.getTitleLength(rows - 1);
+      final int keyChars = rows == 0 ? 0 : store.getKeyEnd(rows - 1);
+      out.writeInt(MappedSuggestionIndex.MAGIC);
+      out.writeInt(MappedSuggestionIndex.VERSION);
+      out.writeInt(rows);
+      out.writeInt(termCount);
+      out.writeInt(titleChars);
+      out.writeInt(keyChars);
+      out.writeLong(0);
+      for (int row = 0; row < rows; row++) {
+        out.writeLong(store.getId(row));
+      }
+      for (int row = 0; row <= rows; row++) {
+        out.writeInt(row == rows ? titleChars : store.getTitleStart(row));
+      }
+      for (int row = 0; row <= rows; row++) {
+        out.writeInt(row == rows ? keyChars : store.getKeyStart(row));
+      }
+      for (int i = 0; i < termCount; i++) {
+        out.writeInt(termRows[order[i]]);
+      }
+      for (int i = 0; i < termCount; i++) {
+        out.writeInt(termStarts[order[i]]);
+      }
+      final char[] titles = store.getTitleChars();
+      for (int i = 0; i < titleChars; i++) {
+        out.writeChar(titles[i]);
+      }
+      for (int i = 0; i < keyChars; i++) {
+        out.writeChar(keys[i]);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Sort the terms, as indices into their starts and ends, with a merge sort on primitive arrays so
+   * a large directory does not box one object per term.
+   *
+   * @return the indices of the terms in sorted order
+   */
+  static int[] sortTerms(final char[] keys, final int[] starts, final int[] ends,
+      final int count) {
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    int[] merged = new int[count];
+    for (int width = 1; width < count; width *= 2) {
+      for (int low = 0; low < count; low += 2 * width) {
+        final int middle = Math.min(low + width, count);
+        final int high = Math.min(low + 2 * width, count);
+        int a = low;
+        int b = middle;
+        int out = low;
+        while (a < middle && b < high) {
+          final int x = order[a];
+          final int y = order[b];
+          // Taking from the left on ties keeps the sort stable.
+          if (compareTerms(keys, starts[x], ends[x], starts[y], ends[y]) <= 0) {
+            merged[out++] = x;
+            a++;
+          } else {
+            merged[out++] = y;
+            b++;
+          }
+        }
+        System.arraycopy(order, a, merged, out, middle - a);
+        out += middle - a;
+        System.arraycopy(order, b, merged, out, high - b);
+      }
+      final int[] swap = order;
+      order = merged;
+      merged = swap;
+    }
+    return order;
+  }
+
+  static boolean isWordStart(final char[] text, final int keyStart, final int i) {
+    return Character.isLetterOrDigit(text[i])
+        && (i == keyStart || !Character.isLetterOrDigit(text[i - 1]));
+  }
+
+  private static int compareTerms(final char[] text, int a, final int aEnd, int b,
+      final int bEnd) {
+    for (; a < aEnd && b < bEnd; a++, b++) {
+      if (text[a] != text[b]) {
+        return text[a] - text[b];
+      }
+    }
+    return (aEnd - a) - (bEnd - b);
+  }
+}
@@ -0,0 +1,81 @@
+package co.djuraev.chipsinput.chips;
+
+import android.util.LruCache;
+
+/**
+ * Bounded LRU cache of ranked suggestion results keyed by normalized query. Cached results are
+ * shared between lookups and must not be modified. Each change of the underlying suggestions must
+ * be followed by {@link #invalidate()}; results computed against the previous data are then
+ * rejected by {@link #put}, even if they finish after the invalidation.
+ */
+public class SuggestionResultCache<T> {
+  public static final int DEFAULT_MAX_ENTRIES = 64;
+
+  private final LruCache<String, T> mResults;
+  private volatile int mGeneration;
+
+  public SuggestionResultCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * @param maxEntries how many queries to keep results for
+   */
+  public SuggestionResultCache(final int maxEntries) {
+    mResults = new LruCache<>(maxEntries);
+  }
+
+  /**
+   * Get the generation the results being computed must be stored with. Read it before looking at
+   * the suggestions.
+   */
+  public int getGeneration() {
+    return mGeneration;
+  }
+
+  /**
+   * @return the cached results for the query, or null
+   */
+  public T get(final String query) {
+    return mResults.get(Utils.normalizeSuggestionKey(query));
+  }
+
+  /**
+   * Remember results computed from the suggestions of the given generation.
+   */
+  public void put(final String query, final T results, final int generation) {
+    synchronized (this) {
+      if (generation != mGeneration) {
+        return;
+      }
+      mResults.put(Utils.normalizeSuggestionKey(query), results);
+    }
+  }
+
+  /**
+   * Drop every cached result. Call it whenever the suggestions change.
+   */
+  public void invalidate() {
+    synchronized (this) {
+      mGeneration++;
+      mResults.evictAll();
+    }
+  }
+
+  public int getHitCount() {
+    return mResults.hitCount();
+  }
+
+  public int getMissCount() {
+    return mResults.missCount();
+  }
+
+  /**
+   * @return fraction of lookups served from the cache since it was created
+   */
+  public float getHitRate() {
+    final int hits = mResults.hitCount();
+    final int lookups = hits + mResults.missCount();
+    return lookups == 0 ? 0f : (float) hits / lookups;
+  }
+}
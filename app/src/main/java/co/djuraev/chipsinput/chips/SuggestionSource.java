@@ -0,0 +1,30 @@
+package co.djuraev.chipsinput.chips;
+
+import java.util.List;
+
+/**
+ * SuggestionSource supplies suggestions one page at a time, so a directory kept in a database or on
+ * a server never has to be loaded into memory as a whole. Use it through
+ * {@link RecipientEditTextView#setAdapter(SuggestionSource)}.
+ */
+public interface SuggestionSource {
+
+  /**
+   * Start looking up the suggestions matching a query. Implementations must not block the calling
+   * thread; the callback may be invoked on any thread.
+   *
+   * @param query the text typed by the user
+   * @param offset number of matches already loaded, the page starts after them
+   * @param pageSize maximum number of matches to return
+   */
+  void query(String query, int offset, int pageSize, Callback callback);
+
+  interface Callback {
+    /**
+     * Deliver a page of matches, in display order.
+     *
+     * @param hasMore whether there are matches after this page
+     */
+    void onPageLoaded(List<ChipItem> page, boolean hasMore);
+  }
+}
@@ -0,0 +1,168 @@
+package co.djuraev.chipsinput.chips;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+import co.djuraev.chipsinput.R;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapter showing the suggestions of a {@link SuggestionSource}. Filtering fetches the first page
+ * of matches; further pages are requested when the dropdown is scrolled close to the last loaded
+ * row.
+ */
+public class SuggestionSourceAdapter extends BaseAdapter implements Filterable {
+  private static final String TAG = SuggestionSourceAdapter.class.getSimpleName();
+  static final int DEFAULT_PAGE_SIZE = 20;
+  /**
+   * How many rows before the end of the loaded matches the next page is requested.
+   */
+  private static final int PREFETCH_DISTANCE = 5;
+  /**
+   * How long the filter thread waits for the first page of a query.
+   */
+  private static final long FIRST_PAGE_TIMEOUT_MS = 5000;
+
+  private final SuggestionSource mSource;
+  private final int mPageSize;
+  private final LayoutInflater mInflater;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  // Only touched on the main thread.
+  private final ArrayList<ChipItem> mItems = new ArrayList<>();
+  private String mQuery;
+  private boolean mHasMore;
+  private boolean mLoading;
+  private int mGeneration;
+
+  public SuggestionSourceAdapter(final Context context, final SuggestionSource source) {
+    this(context, source, DEFAULT_PAGE_SIZE);
+  }
+
+  public SuggestionSourceAdapter(final Context context, final SuggestionSource source,
+      final int pageSize) {
+    mSource = source;
+    mPageSize = pageSize;
+    mInflater = LayoutInflater.from(context);
+  }
+
+  @Override public int getCount() {
+    return mItems.size();
+  }
+
+  @Override public ChipItem getItem(final int position) {
+    return mItems.get(position);
+  }
+
+  @Override public long getItemId(final int position) {
+    return mItems.get(position).getId();
+  }
+
+  @Override public View getView(final int position, View view, final ViewGroup parent) {
+    if (view == null) {
+      view = mInflater.inflate(R.layout.item_chip_drop_down, parent, false);
+      view.setTag(view.findViewById(R.id.title));
+    }
+    ((TextView) view.getTag()).setText(mItems.get(position).getTitle());
+    if (mHasMore && !mLoading && position >= mItems.size() - PREFETCH_DISTANCE) {
+      loadNextPage();
+    }
+    return view;
+  }
+
+  private void loadNextPage() {
+    mLoading = true;
+    final int generation = mGeneration;
+    mSource.query(mQuery, mItems.size(), mPageSize, new SuggestionSource.Callback() {
+      @Override public void onPageLoaded(final List<ChipItem> page, final boolean hasMore) {
+        mHandler.post(new Runnable() {
+          @Override public void run() {
+            if (generation != mGeneration) {
+              // The query changed while this page was loading.
+              return;
+            }
+            mLoading = false;
+            mHasMore = hasMore;
+            if (!page.isEmpty()) {
+              mItems.addAll(page);
+              notifyDataSetChanged();
+            }
+          }
+        });
+      }
+    });
+  }
+
+  @Override public Filter getFilter() {
+    return new SourceFilter();
+  }
+
+  private static final class FirstPage {
+    final String mQuery;
+    List<ChipItem> mItems;
+    boolean mHasMore;
+
+    FirstPage(final String query) {
+      mQuery = query;
+    }
+  }
+
+  private final class SourceFilter extends Filter {
+
+    @Override protected FilterResults performFiltering(final CharSequence constraint) {
+      final FilterResults results = new FilterResults();
+      if (constraint == null) {
+        return results;
+      }
+      // Filtering runs on a worker thread, so it is fine to wait here for the source to answer.
+      final FirstPage firstPage = new FirstPage(constraint.toString());
+      final CountDownLatch loaded = new CountDownLatch(1);
+      mSource.query(firstPage.mQuery, 0, mPageSize, new SuggestionSource.Callback() {
+        @Override public void onPageLoaded(final List<ChipItem> page, final boolean hasMore) {
+          firstPage.mItems = page;
+          firstPage.mHasMore = hasMore;
+          loaded.countDown();
+        }
+      });
+      try {
+        if (!loaded.await(FIRST_PAGE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          // The query is what the user typed, keep it out of the log.
+          Log.w(TAG, "Timed out waiting for the first page of suggestions");
+          return results;
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return results;
+      }
+      results.values = firstPage;
+      results.count = firstPage.mItems.size();
+      return results;
+    }
+
+    @Override protected void publishResults(final CharSequence constraint,
+        final FilterResults results) {
+      if (results.values == null) {
+        return;
+      }
+      final FirstPage firstPage = (FirstPage) results.values;
+      mGeneration++;
+      mQuery = firstPage.mQuery;
+      mHasMore = firstPage.mHasMore;
+      mLoading = false;
+      mItems.clear();
+      mItems.addAll(firstPage.mItems);
+      notifyDataSetChanged();
+    }
+  }
+}
@@ -4,22 +4,44 @@ import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.text.TextUtils;
-import java.util.regex.Pattern;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class Utils {
-  /**
-   * This pattern comes from android.util.Patterns. It has been tweaked to handle a "1" before parens, so numbers such
-   * as "1 (425) 222-2342" match.
-   */
-  private static final Pattern PHONE_PATTERN = Pattern.compile(
-      "(\\+[0-9]+[\\- \\.]*)?"
-          + "(1?[ ]*\\([0-9]+\\)[\\- \\.]*)?"
-          + "([0-9][0-9\\- \\.][0-9\\- \\.]+[0-9])");
+  private static ExecutorService sSuggestionExecutor;
 
   public static boolean phoneNumberMatch(String number) {
     // PhoneNumberUtil). One complication is that it requires the sender's region which
     // comes from the CurrentCountryIso. For now, let's just do this simple match.
-    return !TextUtils.isEmpty(number) && PHONE_PATTERN.matcher(number).matches();
+    return !TextUtils.isEmpty(number) && PhoneNumbers.isPhoneNumber(number);
+  }
+
+  /**
+   * Normalize a title or a query for suggestion matching. Keys compare equal when the strings only
+   * differ in case or in surrounding whitespace.
+   */
+  public static String normalizeSuggestionKey(CharSequence text) {
+    return text == null ? "" : text.toString().trim().toLowerCase();
+  }
+
+  /**
+   * Get the background thread suggestion sources answer queries on unless given an executor. It is
+   * shared by all of them and is a daemon, so sources need no closing and never keep the process
+   * alive.
+   */
+  static synchronized Executor getSuggestionExecutor() {
+    if (sSuggestionExecutor == null) {
+      sSuggestionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(final Runnable runnable) {
+          final Thread thread = new Thread(runnable, "SuggestionSource");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return sSuggestionExecutor;
   }
 
   public static void copyToClipboard(Context context, String copyText) {